@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Exposes the contents of a buffer (from its position to its limit) as an
+ * InputStream, without copying the data.
+ *
+ * @author Darien Hager
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+    private int mark = -1;
+
+    /**
+     * Creates a new stream over the given buffer.
+     * @param source The buffer to read from. It is not modified, a view of it
+     * is taken instead.
+     */
+    public ByteBufferInputStream(ByteBuffer source) {
+        this.buf = source.duplicate();
+    }
+
+    @Override
+    public int read() {
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        return buf.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, buf.remaining());
+        buf.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int count = (int) Math.min(n, buf.remaining());
+        buf.position(buf.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = buf.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        if (mark >= 0) {
+            buf.position(mark);
+        }
+    }
+}
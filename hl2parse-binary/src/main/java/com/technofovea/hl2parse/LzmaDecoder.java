@@ -0,0 +1,389 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Decompresses LZMA data, as found in the compressed lumps of newer Source
+ * engine files. Since the uncompressed size is always known up-front, the
+ * output array doubles as the dictionary.
+ *
+ * Valve prefixes the raw LZMA stream with its own 17-byte header, see
+ * {@link #isCompressed(java.nio.ByteBuffer)} and
+ * {@link #decompress(java.nio.ByteBuffer)}.
+ *
+ * Based on the public-domain LZMA SDK decoder.
+ * @author Darien Hager
+ */
+public class LzmaDecoder {
+
+    /**
+     * The identifier at the start of Valve's LZMA header, "LZMA" read as a
+     * little-endian integer
+     */
+    public static final int MAGIC = 0x414D5A4C;
+    /**
+     * Length of Valve's header: magic, uncompressed size, compressed size and
+     * the five LZMA property bytes
+     */
+    public static final int HEADER_LEN = 17;
+    /**
+     * Length of the LZMA property block
+     */
+    public static final int PROPS_LEN = 5;
+    private static final int NUM_STATES = 12;
+    private static final int NUM_POS_BITS_MAX = 4;
+    private static final int NUM_LEN_TO_POS_STATES = 4;
+    private static final int NUM_ALIGN_BITS = 4;
+    private static final int START_POS_MODEL_INDEX = 4;
+    private static final int END_POS_MODEL_INDEX = 14;
+    private static final int NUM_FULL_DISTANCES = 1 << (END_POS_MODEL_INDEX / 2);
+    private static final int MATCH_MIN_LEN = 2;
+    private static final int TOP_MASK = ~((1 << 24) - 1);
+    private static final int NUM_BIT_MODEL_TOTAL_BITS = 11;
+    private static final int BIT_MODEL_TOTAL = 1 << NUM_BIT_MODEL_TOTAL_BITS;
+    private static final int NUM_MOVE_BITS = 5;
+    private static final short PROB_INIT = BIT_MODEL_TOTAL / 2;
+
+    private LzmaDecoder() {
+    }
+
+    /**
+     * Checks whether the data begins with Valve's LZMA header.
+     * @param data The data to check, from the current position. It is not modified.
+     * @return True if compressed
+     */
+    public static boolean isCompressed(ByteBuffer data) {
+        if (data.remaining() < 4) {
+            return false;
+        }
+        ByteBuffer temp = data.duplicate();
+        temp.order(ByteOrder.LITTLE_ENDIAN);
+        return temp.getInt() == MAGIC;
+    }
+
+    /**
+     * Reads the total length of a compressed block, header included.
+     * @param header At least {@link #HEADER_LEN} bytes of the block, from the current position
+     * @return The length in bytes
+     * @throws IOException If the header is invalid
+     */
+    public static int getCompressedLength(ByteBuffer header) throws IOException {
+        ByteBuffer temp = header.duplicate();
+        temp.order(ByteOrder.LITTLE_ENDIAN);
+        if (temp.remaining() < HEADER_LEN || temp.getInt() != MAGIC) {
+            throw new IOException("Data does not begin with an LZMA header");
+        }
+        temp.getInt();
+        int lzmaSize = temp.getInt();
+        if (lzmaSize < 0) {
+            throw new IOException("LZMA header has negative compressed size");
+        }
+        return HEADER_LEN + lzmaSize;
+    }
+
+    /**
+     * Decompresses a block which begins with Valve's LZMA header.
+     * @param data The compressed block, from the current position. It is not modified.
+     * @return A new little-endian buffer of the uncompressed data
+     * @throws IOException If the data is not valid
+     */
+    public static ByteBuffer decompress(ByteBuffer data) throws IOException {
+        ByteBuffer in = data.duplicate();
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_LEN || in.getInt() != MAGIC) {
+            throw new IOException("Data does not begin with an LZMA header");
+        }
+        final int actualSize = in.getInt();
+        final int lzmaSize = in.getInt();
+        if (actualSize < 0 || lzmaSize < 0) {
+            throw new IOException("LZMA header has negative sizes");
+        }
+        byte[] props = new byte[PROPS_LEN];
+        in.get(props);
+        if (in.remaining() < lzmaSize) {
+            throw new IOException("LZMA data is truncated, expected " + lzmaSize + " bytes but only " + in.remaining() + " remain");
+        }
+        in.limit(in.position() + lzmaSize);
+
+        byte[] out = new byte[actualSize];
+        decode(props, in, out);
+        ByteBuffer ret = ByteBuffer.wrap(out);
+        ret.order(ByteOrder.LITTLE_ENDIAN);
+        return ret;
+    }
+
+    /**
+     * Decodes a raw LZMA stream.
+     * @param props The five property bytes
+     * @param in The compressed stream, from the current position to the limit.
+     * Its position will be advanced.
+     * @param out Destination for the uncompressed data, which is filled completely
+     * @throws IOException If the data is not valid
+     */
+    public static void decode(byte[] props, ByteBuffer in, byte[] out) throws IOException {
+        if (props.length < PROPS_LEN) {
+            throw new IOException("LZMA properties are too short");
+        }
+        int d = props[0] & 0xFF;
+        final int lc = d % 9;
+        d /= 9;
+        final int lp = d % 5;
+        final int pb = d / 5;
+        if (pb > NUM_POS_BITS_MAX) {
+            throw new IOException("Invalid LZMA properties byte " + (props[0] & 0xFF));
+        }
+        new State(lc, lp, pb, new RangeDecoder(in)).decode(out);
+    }
+
+    private static short[] probs(int len) {
+        short[] ret = new short[len];
+        Arrays.fill(ret, PROB_INIT);
+        return ret;
+    }
+
+    private static final class RangeDecoder {
+
+        private final ByteBuffer in;
+        private int range = -1;
+        private int code = 0;
+
+        RangeDecoder(ByteBuffer in) {
+            this.in = in;
+            for (int i = 0; i < 5; i++) {
+                code = (code << 8) | readByte();
+            }
+        }
+
+        private int readByte() {
+            // Running off the end can only happen with corrupt data, which
+            // is caught by the distance checks.
+            if (!in.hasRemaining()) {
+                return 0;
+            }
+            return in.get() & 0xFF;
+        }
+
+        int decodeDirectBits(int numTotalBits) {
+            int result = 0;
+            for (int i = numTotalBits; i != 0; i--) {
+                range >>>= 1;
+                int t = ((code - range) >>> 31);
+                code -= range & (t - 1);
+                result = (result << 1) | (1 - t);
+                if ((range & TOP_MASK) == 0) {
+                    code = (code << 8) | readByte();
+                    range <<= 8;
+                }
+            }
+            return result;
+        }
+
+        int decodeBit(short[] probs, int index) {
+            int prob = probs[index];
+            int newBound = (range >>> NUM_BIT_MODEL_TOTAL_BITS) * prob;
+            int bit;
+            if ((code ^ 0x80000000) < (newBound ^ 0x80000000)) {
+                range = newBound;
+                probs[index] = (short) (prob + ((BIT_MODEL_TOTAL - prob) >>> NUM_MOVE_BITS));
+                bit = 0;
+            } else {
+                range -= newBound;
+                code -= newBound;
+                probs[index] = (short) (prob - (prob >>> NUM_MOVE_BITS));
+                bit = 1;
+            }
+            if ((range & TOP_MASK) == 0) {
+                code = (code << 8) | readByte();
+                range <<= 8;
+            }
+            return bit;
+        }
+
+        int decodeTree(short[] probs, int offset, int numBits) {
+            int m = 1;
+            for (int i = numBits; i != 0; i--) {
+                m = (m << 1) + decodeBit(probs, offset + m);
+            }
+            return m - (1 << numBits);
+        }
+
+        int decodeReverseTree(short[] probs, int offset, int numBits) {
+            int m = 1;
+            int symbol = 0;
+            for (int i = 0; i < numBits; i++) {
+                int bit = decodeBit(probs, offset + m);
+                m = (m << 1) + bit;
+                symbol |= (bit << i);
+            }
+            return symbol;
+        }
+    }
+
+    private static final class LenDecoder {
+
+        private final short[] choice = probs(2);
+        private final short[] low = probs(1 << (NUM_POS_BITS_MAX + 3));
+        private final short[] mid = probs(1 << (NUM_POS_BITS_MAX + 3));
+        private final short[] high = probs(1 << 8);
+
+        int decode(RangeDecoder rc, int posState) {
+            if (rc.decodeBit(choice, 0) == 0) {
+                return rc.decodeTree(low, posState << 3, 3);
+            }
+            if (rc.decodeBit(choice, 1) == 0) {
+                return 8 + rc.decodeTree(mid, posState << 3, 3);
+            }
+            return 16 + rc.decodeTree(high, 0, 8);
+        }
+    }
+
+    private static final class State {
+
+        private final int lc;
+        private final int lp;
+        private final int posStateMask;
+        private final RangeDecoder rc;
+        private final short[] isMatch = probs(NUM_STATES << NUM_POS_BITS_MAX);
+        private final short[] isRep = probs(NUM_STATES);
+        private final short[] isRepG0 = probs(NUM_STATES);
+        private final short[] isRepG1 = probs(NUM_STATES);
+        private final short[] isRepG2 = probs(NUM_STATES);
+        private final short[] isRep0Long = probs(NUM_STATES << NUM_POS_BITS_MAX);
+        private final short[] posSlot = probs(NUM_LEN_TO_POS_STATES << 6);
+        private final short[] posDecoders = probs(NUM_FULL_DISTANCES - END_POS_MODEL_INDEX);
+        private final short[] posAlign = probs(1 << NUM_ALIGN_BITS);
+        private final short[] literals;
+        private final LenDecoder lenDecoder = new LenDecoder();
+        private final LenDecoder repLenDecoder = new LenDecoder();
+
+        State(int lc, int lp, int pb, RangeDecoder rc) {
+            this.lc = lc;
+            this.lp = lp;
+            this.posStateMask = (1 << pb) - 1;
+            this.rc = rc;
+            this.literals = probs(0x300 << (lc + lp));
+        }
+
+        void decode(byte[] out) throws IOException {
+            int state = 0;
+            int rep0 = 0;
+            int rep1 = 0;
+            int rep2 = 0;
+            int rep3 = 0;
+            int pos = 0;
+            int prevByte = 0;
+            while (pos < out.length) {
+                final int posState = pos & posStateMask;
+                if (rc.decodeBit(isMatch, (state << NUM_POS_BITS_MAX) + posState) == 0) {
+                    final int base = 0x300 * (((pos & ((1 << lp) - 1)) << lc) + (prevByte >>> (8 - lc)));
+                    int symbol = 1;
+                    if (state < 7) {
+                        do {
+                            symbol = (symbol << 1) | rc.decodeBit(literals, base + symbol);
+                        } while (symbol < 0x100);
+                    } else {
+                        int matchByte = out[pos - rep0 - 1];
+                        do {
+                            int matchBit = (matchByte >> 7) & 1;
+                            matchByte <<= 1;
+                            int bit = rc.decodeBit(literals, base + ((1 + matchBit) << 8) + symbol);
+                            symbol = (symbol << 1) | bit;
+                            if (matchBit != bit) {
+                                while (symbol < 0x100) {
+                                    symbol = (symbol << 1) | rc.decodeBit(literals, base + symbol);
+                                }
+                                break;
+                            }
+                        } while (symbol < 0x100);
+                    }
+                    prevByte = symbol & 0xFF;
+                    out[pos++] = (byte) prevByte;
+                    state = (state < 4) ? 0 : ((state < 10) ? state - 3 : state - 6);
+                    continue;
+                }
+
+                int len;
+                if (rc.decodeBit(isRep, state) == 1) {
+                    len = 0;
+                    if (rc.decodeBit(isRepG0, state) == 0) {
+                        if (rc.decodeBit(isRep0Long, (state << NUM_POS_BITS_MAX) + posState) == 0) {
+                            state = (state < 7) ? 9 : 11;
+                            len = 1;
+                        }
+                    } else {
+                        int distance;
+                        if (rc.decodeBit(isRepG1, state) == 0) {
+                            distance = rep1;
+                        } else {
+                            if (rc.decodeBit(isRepG2, state) == 0) {
+                                distance = rep2;
+                            } else {
+                                distance = rep3;
+                                rep3 = rep2;
+                            }
+                            rep2 = rep1;
+                        }
+                        rep1 = rep0;
+                        rep0 = distance;
+                    }
+                    if (len == 0) {
+                        len = repLenDecoder.decode(rc, posState) + MATCH_MIN_LEN;
+                        state = (state < 7) ? 8 : 11;
+                    }
+                } else {
+                    rep3 = rep2;
+                    rep2 = rep1;
+                    rep1 = rep0;
+                    len = MATCH_MIN_LEN + lenDecoder.decode(rc, posState);
+                    state = (state < 7) ? 7 : 10;
+                    final int lenToPosState = Math.min(len - MATCH_MIN_LEN, NUM_LEN_TO_POS_STATES - 1);
+                    final int slot = rc.decodeTree(posSlot, lenToPosState << 6, 6);
+                    if (slot >= START_POS_MODEL_INDEX) {
+                        final int numDirectBits = (slot >> 1) - 1;
+                        rep0 = (2 | (slot & 1)) << numDirectBits;
+                        if (slot < END_POS_MODEL_INDEX) {
+                            rep0 += rc.decodeReverseTree(posDecoders, rep0 - slot - 1, numDirectBits);
+                        } else {
+                            rep0 += rc.decodeDirectBits(numDirectBits - NUM_ALIGN_BITS) << NUM_ALIGN_BITS;
+                            rep0 += rc.decodeReverseTree(posAlign, 0, NUM_ALIGN_BITS);
+                            if (rep0 == -1) {
+                                // End-of-stream marker
+                                break;
+                            }
+                        }
+                    } else {
+                        rep0 = slot;
+                    }
+                }
+
+                if (rep0 < 0 || rep0 >= pos) {
+                    throw new IOException("Corrupt LZMA data, match distance " + rep0 + " at position " + pos);
+                }
+                final int end = Math.min(pos + len, out.length);
+                while (pos < end) {
+                    out[pos] = out[pos - rep0 - 1];
+                    pos++;
+                }
+                prevByte = out[pos - 1] & 0xFF;
+            }
+            if (pos < out.length) {
+                throw new IOException("LZMA stream ended after " + pos + " of " + out.length + " bytes");
+            }
+        }
+    }
+}
@@ -50,14 +50,12 @@ public class OffsetBuffer {
         this.parent = parent;
         this.parentOffset = parentOffset;
 
-        int pos = parent.position();
-        int lim = parent.limit();
-
-        parent.position(parentOffset);
-        parent.limit(parentOffset+len);
-        this.buf = parent.slice();
-        parent.position(pos);
-        parent.limit(lim);
+        // Work on a duplicate so the parent's position and limit are never
+        // disturbed, which keeps this safe to use from several threads.
+        ByteBuffer view = parent.duplicate();
+        view.limit(parentOffset + len);
+        view.position(parentOffset);
+        this.buf = view.slice();
 
         this.buf.order(ByteOrder.LITTLE_ENDIAN);
 
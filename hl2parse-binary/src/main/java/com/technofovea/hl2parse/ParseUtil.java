@@ -138,16 +138,22 @@ public class ParseUtil {
 
     /**
      * Maps the given file into memory and returns a representative buffer.
+     * The file is closed again before returning, the mapping remains valid
+     * until the buffer is garbage-collected.
      * @param target The file to load
      * @return A read-only buffer of corresponding data in little-endian mode.
      * @throws IOException If an error occurred accessing or mapping the file.
      */
     public static MappedByteBuffer mapFile(File target) throws IOException {
         FileInputStream fos = new FileInputStream(target);
-        FileChannel fc = fos.getChannel();
-        MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, target.length());
-        mbb.order(ByteOrder.LITTLE_ENDIAN);
-        return mbb;
+        try {
+            FileChannel fc = fos.getChannel();
+            MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            mbb.order(ByteOrder.LITTLE_ENDIAN);
+            return mbb;
+        } finally {
+            fos.close();
+        }
     }
 
     /**
@@ -37,16 +37,23 @@ public class Vector3f {
      */
     public Vector3f(ByteBuffer b) {
         super();
-        byte[] backing = new byte[NUMVALS*BYTELEN];
-        b.get(backing);
-
-        ByteBuffer temp = ByteBuffer.wrap(backing);
-        temp.order(ByteOrder.LITTLE_ENDIAN);
-
-        x = temp.getFloat();
-        y = temp.getFloat();
-        z = temp.getFloat();
+        if (b.remaining() < NUMVALS * BYTELEN) {
+            throw new BufferUnderflowException();
+        }
+        x = readFloat(b);
+        y = readFloat(b);
+        z = readFloat(b);
+    }
 
+    /**
+     * Reads a little-endian float regardless of the buffer's byte order.
+     */
+    private static float readFloat(ByteBuffer b) {
+        int bits = b.getInt();
+        if (b.order() != ByteOrder.LITTLE_ENDIAN) {
+            bits = Integer.reverseBytes(bits);
+        }
+        return Float.intBitsToFloat(bits);
     }
 
     @Override
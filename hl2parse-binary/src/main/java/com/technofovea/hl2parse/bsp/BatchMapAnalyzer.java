@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.bsp;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Analyzes many maps concurrently, handing the results for each map to a
+ * callback as soon as that map has been processed.
+ *
+ * The number of maps being worked on (and whose results are held in memory)
+ * at any one time is capped, so that arbitrarily large collections of maps
+ * can be processed with bounded memory.
+ *
+ * @author Darien Hager
+ */
+public class BatchMapAnalyzer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchMapAnalyzer.class);
+    /**
+     * The file extension of map files
+     */
+    public static final String MAP_EXTENSION = ".bsp";
+
+    /**
+     * Receives the outcome for each map. Methods may be called concurrently
+     * from several worker threads.
+     */
+    public interface Callback {
+
+        /**
+         * Called when a map has been successfully analyzed
+         * @param result The data extracted from the map
+         */
+        public void mapAnalyzed(Result result);
+
+        /**
+         * Called when a map could not be opened or parsed
+         * @param map The map file
+         * @param cause The problem which occurred
+         */
+        public void mapFailed(File map, Exception cause);
+    }
+
+    /**
+     * The data extracted from a single map.
+     */
+    public static class Result {
+
+        File file;
+        Set<String> brushTextures;
+        Map<String, Set<Integer>> staticPropSkins;
+        String entData;
+        List<String> packedFiles;
+
+        Result(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Get the map file this result is for
+         * @return The map file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @see SourceMapAnalyzer#getBrushTextures()
+         * @return A set of relative texture paths
+         */
+        public Set<String> getBrushTextures() {
+            return brushTextures;
+        }
+
+        /**
+         * @see SourceMapAnalyzer#getStaticPropSkins()
+         * @return A mapping of prop paths to the skins used
+         */
+        public Map<String, Set<Integer>> getStaticPropSkins() {
+            return staticPropSkins;
+        }
+
+        /**
+         * @see SourceMapAnalyzer#getEntData()
+         * @return A string of entity data
+         */
+        public String getEntData() {
+            return entData;
+        }
+
+        /**
+         * Get the paths of all files packed into the map
+         * @return A list of paths, in archive order
+         */
+        public List<String> getPackedFiles() {
+            return packedFiles;
+        }
+    }
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    /**
+     * Creates a new batch analyzer.
+     * @param executor The executor to run analysis tasks on. It is not shut
+     * down by this class.
+     * @param maxInFlight The maximum number of maps which may be in progress,
+     * or awaiting their callback, at any one time
+     */
+    public BatchMapAnalyzer(ExecutorService executor, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one map must be allowed in flight");
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Recursively finds all map files beneath the given directory.
+     * @param directory The directory to search
+     * @return A list of map files, sorted by path within each directory
+     */
+    public static List<File> findMaps(File directory) {
+        List<File> ret = new ArrayList<File>();
+        appendMaps(directory, ret);
+        return ret;
+    }
+
+    private static void appendMaps(File directory, List<File> found) {
+        File[] children = directory.listFiles(new FileFilter() {
+
+            public boolean accept(File f) {
+                return f.isDirectory() || f.getName().toLowerCase().endsWith(MAP_EXTENSION);
+            }
+        });
+        if (children == null) {
+            logger.warn("Could not list directory {}", directory);
+            return;
+        }
+        List<File> sorted = new ArrayList<File>();
+        Collections.addAll(sorted, children);
+        Collections.sort(sorted);
+        for (File f : sorted) {
+            if (f.isDirectory()) {
+                appendMaps(f, found);
+            } else {
+                found.add(f);
+            }
+        }
+    }
+
+    /**
+     * Analyzes every map beneath the given directory.
+     * @see #analyze(java.util.List, com.technofovea.hl2parse.bsp.BatchMapAnalyzer.Callback)
+     * @param directory The directory to search for maps
+     * @param callback The callback to receive results
+     * @throws InterruptedException If interrupted while waiting for maps to finish
+     */
+    public void analyze(File directory, Callback callback) throws InterruptedException {
+        analyze(findMaps(directory), callback);
+    }
+
+    /**
+     * Analyzes the given maps, blocking until all of them have been
+     * processed and their callbacks have returned. If the executor rejects a
+     * map, this still waits for the maps already submitted before throwing.
+     * @param maps The map files to analyze
+     * @param callback The callback to receive results
+     * @throws InterruptedException If interrupted while waiting for maps to finish
+     * @throws RejectedExecutionException If the executor would not accept a map
+     */
+    public void analyze(List<File> maps, final Callback callback) throws InterruptedException {
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        logger.debug("Analyzing {} maps, at most {} at a time", maps.size(), maxInFlight);
+        for (final File map : maps) {
+            inFlight.acquire();
+            Runnable task = new Runnable() {
+
+                public void run() {
+                    try {
+                        Result result;
+                        try {
+                            result = analyzeMap(map);
+                        } catch (Exception ex) {
+                            logger.debug("Failed to analyze map " + map, ex);
+                            callback.mapFailed(map, ex);
+                            return;
+                        }
+                        callback.mapAnalyzed(result);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                // Keep this task's permit, and let the tasks already running
+                // finish so that no callbacks arrive after returning
+                inFlight.acquireUninterruptibly(maxInFlight - 1);
+                inFlight.release(maxInFlight);
+                throw ex;
+            }
+        }
+        // Wait for everything outstanding to finish
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    /**
+     * Extracts the data for a single map.
+     * @param map The map file
+     * @return The extracted data
+     * @throws IOException If the file could not be read
+     * @throws BspParseException If the map could not be parsed
+     */
+    protected Result analyzeMap(File map) throws IOException, BspParseException {
+        logger.trace("Analyzing map {}", map);
+        Result result = new Result(map);
+        SourceMapAnalyzer sma = new SourceMapAnalyzer(map, true, true);
+        try {
+            result.brushTextures = sma.getBrushTextures();
+            result.staticPropSkins = new HashMap<String, Set<Integer>>(sma.getStaticPropSkins());
+            result.entData = sma.getEntData();
+            List<String> packed = new ArrayList<String>();
+            for (PakEntry entry : sma.getPackedFiles().getEntries()) {
+                packed.add(entry.getName());
+            }
+            result.packedFiles = packed;
+        } finally {
+            sma.close();
+        }
+        return result;
+    }
+}
@@ -12,36 +12,100 @@
  */
 package com.technofovea.hl2parse.bsp;
 
+import com.technofovea.hl2parse.LzmaDecoder;
 import com.technofovea.hl2parse.OffsetBuffer;
 import com.technofovea.hl2parse.ParseUtil;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class serves as a base for writing classes which interpret the venerable BSP map format.
+ *
+ * Analyzers opened from a {@link File} should be closed when no longer needed.
+ * Data which has already been decoded remains available afterwards, but no
+ * further lumps can be read.
+ *
+ * Lumps which are LZMA-compressed are decompressed transparently. The
+ * decompressed data is kept in a cache bounded by {@link #setCacheBudget(long)},
+ * unless the lump's {@link CachePolicy} says otherwise.
  * @todo Refactor into factory methods
  * @author Darien Hager
  */
-public abstract class BinaryBspAnalyzer {
+public abstract class BinaryBspAnalyzer implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(BinaryBspAnalyzer.class);
+    /**
+     * The default limit on the total size of cached decompressed lumps
+     */
+    public static final long DEFAULT_CACHE_BUDGET = 32 * 1024 * 1024;
+
+    /**
+     * Controls what happens to a compressed lump once it has been decompressed
+     */
+    public enum CachePolicy {
+
+        /**
+         * Decompress once and keep the result, as long as it fits within the
+         * cache budget
+         */
+        KEEP,
+        /**
+         * Decompress again every time the lump is requested, never holding
+         * on to the result
+         */
+        DISCARD
+    }
     /**
      * The buffer (probably mapped) which represents the whole file data.
-     * Should be read-only and little-endian.
+     * Should be read-only and little-endian. Null when reading from a channel,
+     * or once closed.
+     */
+    protected volatile ByteBuffer coreBuffer;
+    /**
+     * The open file when lumps are read on demand instead of from a mapping,
+     * otherwise null.
      */
-    protected ByteBuffer coreBuffer;
+    protected volatile FileChannel channel;
+    /**
+     * Set once {@link #close()} has been called. Readers do not lock, so
+     * this and the two fields above are volatile.
+     */
+    protected volatile boolean closed = false;
     /**
      * The version code found within the map
      */
     protected int version;
+    /**
+     * The revision number of the map, which follows the lump directory
+     */
+    protected int mapRevision;
     /**
      * Header data for each of the BSP lumps
      */
     protected BspLumpHeader[] lumps;
+    /**
+     * Cache policy for each lump, null entries meaning {@link CachePolicy#KEEP}
+     */
+    protected CachePolicy[] cachePolicies;
+    /**
+     * Decompressed data keyed by file offset, least-recently used first
+     */
+    private final Map<Integer, ByteBuffer> decompressed = new LinkedHashMap<Integer, ByteBuffer>(16, 0.75f, true);
+    private long cacheBytes = 0;
+    private long cacheBudget = DEFAULT_CACHE_BUDGET;
 
     /**
      * Creates a new analyzer against the given bytebuffer.
@@ -55,54 +119,341 @@ public abstract class BinaryBspAnalyzer {
         coreBuffer.order(ByteOrder.LITTLE_ENDIAN);
         
         try {
-            loadBasic();
+            loadBasic(coreBuffer);
         } catch (BufferUnderflowException bue) {
             throw new BspParseException(bue);
         }
     }
 
-    private void loadBasic() throws BspParseException {
+    /**
+     * Creates a new analyzer against the given file.
+     *
+     * If mapped, the whole file is memory-mapped and the file is closed again
+     * immediately. Otherwise only the header is read now, the file is kept
+     * open, and each lump is read with positional reads when it is requested.
+     *
+     * @param file The map file to analyze
+     * @param mapped True to memory-map the file, false to read lumps on demand
+     * @throws IOException If the file could not be opened or read
+     * @throws BspParseException If there were any errors parsing
+     */
+    public BinaryBspAnalyzer(File file, boolean mapped) throws IOException, BspParseException {
+        logger.debug("Processing map file {} ({} bytes)", file, file.length());
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel fc = raf.getChannel();
+        boolean keepOpen = false;
+        try {
+            if (mapped) {
+                coreBuffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+                coreBuffer.order(ByteOrder.LITTLE_ENDIAN);
+                loadBasic(coreBuffer);
+            } else {
+                channel = fc;
+                ByteBuffer header = readChannel(channel, 0, getHeaderLength());
+                loadBasic(header);
+                keepOpen = true;
+            }
+        } catch (BufferUnderflowException bue) {
+            throw new BspParseException(bue);
+        } finally {
+            if (!keepOpen) {
+                channel = null;
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Get the length of the fixed header at the start of the file, which
+     * contains the lump directory and map revision.
+     * @return A length in bytes
+     */
+    protected int getHeaderLength() {
+        return getInitialHeader().length + 4 + (getNumLumps() * BspLumpHeader.HEADER_LEN) + 4;
+    }
+
+    private void loadBasic(ByteBuffer headerData) throws BspParseException {
         final int num_lumps = getNumLumps();
         final byte[] expected_hdr = getInitialHeader();
         lumps = new BspLumpHeader[num_lumps];
         byte[] hdr = new byte[expected_hdr.length];
 
-        coreBuffer.get(hdr);
+        headerData.get(hdr);
         if (!Arrays.equals(hdr, expected_hdr)) {
             String hexHdr = ParseUtil.toHex(hdr);
             String hexExpected = ParseUtil.toHex(expected_hdr);
             throw new BspParseException("File does not begin with expected header. Expected "+hexExpected+" but got "+hexHdr);
         }
 
-        int versionNumber = coreBuffer.getInt();
+        int versionNumber = headerData.getInt();
         logger.debug("Map version is {}", versionNumber);
         if (!handlesVersion(versionNumber)) {
             throw new BspParseException("Cannot handle file format version " + versionNumber);
         }
         version = versionNumber;
 
-        for (int i = 0; i < getNumLumps(); i++) {
+        final int dirStart = headerData.position();
+        readLumpDirectory(headerData, false);
+        if (version >= 21 && isVersionFirst(lumps)) {
+            logger.debug("Lump directory has the version before the offset, re-reading");
+            headerData.position(dirStart);
+            readLumpDirectory(headerData, true);
+        }
+        mapRevision = headerData.getInt();
+        logger.debug("Map revision is {}", mapRevision);
+        cachePolicies = new CachePolicy[num_lumps];
+    }
+
+    private void readLumpDirectory(ByteBuffer headerData, boolean versionFirst) throws BspParseException {
+        for (int i = 0; i < lumps.length; i++) {
             logger.trace("Loading lump header #{}", i);
-            lumps[i] = new BspLumpHeader(coreBuffer);
+            lumps[i] = new BspLumpHeader(headerData, versionFirst);
         }
+    }
 
+    /**
+     * Guesses whether a lump directory was read with the wrong field order.
+     * Lump data can never start inside the header, so a non-empty lump which
+     * appears to do so means the "offset" was really a version number.
+     * @param headers The lump headers, read in the usual order
+     * @return True if the directory should be re-read with the version first
+     */
+    private boolean isVersionFirst(BspLumpHeader[] headers) {
+        final int headerLen = getHeaderLength();
+        for (BspLumpHeader h : headers) {
+            if (h.getLength() > 0 && h.getOffset() < headerLen) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Reads a region of the file into a new little-endian heap buffer.
+     * @param offset The offset in the file
+     * @param len The number of bytes to read
+     * @return A buffer positioned at zero
+     * @throws IOException If the file could not be read, or ended early
+     */
+    private static ByteBuffer readChannel(FileChannel channel, long offset, int len) throws IOException {
+        ByteBuffer ret = ByteBuffer.allocate(len);
+        ret.order(ByteOrder.LITTLE_ENDIAN);
+        while (ret.hasRemaining()) {
+            int numRead = channel.read(ret, offset + ret.position());
+            if (numRead < 0) {
+                throw new IOException("Unexpected end of file reading " + len + " bytes at offset " + offset);
+            }
+        }
+        ret.flip();
+        return ret;
+    }
 
+    /**
+     * Get a buffer containing a region of the file, either sliced from the
+     * mapping or freshly read from disk.
+     * @param offset The offset from the start of the file
+     * @param len The length of the region
+     * @return The data
+     * @throws BspParseException If the data could not be read
+     */
+    protected OffsetBuffer getFileData(int offset, int len) throws BspParseException {
+        // Copy the fields first, since close() may clear them at any time
+        final ByteBuffer core = coreBuffer;
+        final FileChannel fc = channel;
+        if (closed || (core == null && fc == null)) {
+            throw new BspParseException("Cannot read map data, the analyzer has been closed");
+        }
+        if (fc == null) {
+            return new OffsetBuffer(core, offset, len);
+        }
+        try {
+            return new OffsetBuffer(readChannel(fc, offset, len), 0, len);
+        } catch (ClosedChannelException ex) {
+            throw new BspParseException("Cannot read map data, the analyzer has been closed", ex);
+        } catch (IOException ex) {
+            throw new BspParseException("Could not read " + len + " bytes at offset " + offset, ex);
+        }
     }
 
     /**
      * Get a buffer containing the payload data for the given lump.
      * @param lumpNum The lump to retrieve
      * @return The data, or null if the given lump does not exist
+     * @throws BspParseException If the lump data could not be read
      */
-    protected OffsetBuffer getLumpData(int lumpNum) {
+    protected OffsetBuffer getLumpData(int lumpNum) throws BspParseException {
         if (lumpNum < 0 || lumpNum >= lumps.length) {
             logger.error("BSP lump {} was out-of-range and could not be found", lumpNum);
             return null;
         }
         BspLumpHeader l = lumps[lumpNum];
 
-        return new OffsetBuffer(coreBuffer, l.getOffset(), l.getLength());
+        return getDecompressedData(l.getOffset(), l.getLength(), getCachePolicy(lumpNum));
+    }
+
+    /**
+     * Get a region of the file, first decompressing it if it begins with an
+     * LZMA header.
+     * @param offset The offset from the start of the file
+     * @param len The length of the region, which for compressed data includes
+     * the LZMA header
+     * @param policy Whether to cache the result of decompression
+     * @return The data, decompressed if necessary
+     * @throws BspParseException If the data could not be read or decompressed
+     */
+    protected OffsetBuffer getDecompressedData(int offset, int len, CachePolicy policy) throws BspParseException {
+        final Integer key = offset;
+        synchronized (decompressed) {
+            ByteBuffer cached = decompressed.get(key);
+            if (cached != null) {
+                return new OffsetBuffer(cached, 0, cached.limit());
+            }
+        }
+
+        OffsetBuffer raw = getFileData(offset, len);
+        if (!LzmaDecoder.isCompressed(raw.getBuf())) {
+            return raw;
+        }
+        ByteBuffer data;
+        try {
+            data = LzmaDecoder.decompress(raw.getBuf()).asReadOnlyBuffer();
+        } catch (IOException ex) {
+            throw new BspParseException("Could not decompress data at offset " + offset, ex);
+        }
+        logger.debug("Decompressed {} bytes at offset {} into {} bytes", new Object[]{raw.getBuf().remaining(), offset, data.limit()});
+
+        if (policy != CachePolicy.DISCARD) {
+            cachePut(key, data);
+        }
+        return new OffsetBuffer(data, 0, data.limit());
+    }
+
+    private void cachePut(Integer key, ByteBuffer data) {
+        synchronized (decompressed) {
+            if (closed || data.limit() > cacheBudget || decompressed.containsKey(key)) {
+                return;
+            }
+            Iterator<ByteBuffer> iter = decompressed.values().iterator();
+            while (cacheBytes + data.limit() > cacheBudget && iter.hasNext()) {
+                cacheBytes -= iter.next().limit();
+                iter.remove();
+            }
+            decompressed.put(key, data);
+            cacheBytes += data.limit();
+        }
+    }
+
+    /**
+     * Get the format version of the map
+     * @return The version number from the header
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the revision of the map, which is incremented each time it is saved
+     * in the editor.
+     * @return The map revision from the header
+     */
+    public int getMapRevision() {
+        return mapRevision;
+    }
+
+    /**
+     * Sets the maximum total size of decompressed lumps which are kept in
+     * memory. When full, the least-recently used lumps are dropped first.
+     * @param bytes The budget in bytes, zero to disable caching
+     */
+    public void setCacheBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Cache budget cannot be negative");
+        }
+        synchronized (decompressed) {
+            cacheBudget = bytes;
+            Iterator<ByteBuffer> iter = decompressed.values().iterator();
+            while (cacheBytes > cacheBudget && iter.hasNext()) {
+                cacheBytes -= iter.next().limit();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the maximum total size of decompressed lumps kept in memory
+     * @return The budget in bytes
+     */
+    public long getCacheBudget() {
+        synchronized (decompressed) {
+            return cacheBudget;
+        }
+    }
+
+    /**
+     * Get the total size of decompressed lumps currently held in memory
+     * @return The size in bytes
+     */
+    public long getCachedBytes() {
+        synchronized (decompressed) {
+            return cacheBytes;
+        }
+    }
+
+    /**
+     * Chooses whether a compressed lump is kept after being decompressed, or
+     * decompressed afresh on every access. This has no effect on lumps which
+     * are not compressed.
+     * @param lumpNum The lump index
+     * @param policy The policy to use
+     */
+    public void setCachePolicy(int lumpNum, CachePolicy policy) {
+        if (lumpNum < 0 || lumpNum >= cachePolicies.length) {
+            throw new IndexOutOfBoundsException("Lump " + lumpNum + " does not exist");
+        }
+        synchronized (decompressed) {
+            cachePolicies[lumpNum] = policy;
+            if (policy == CachePolicy.DISCARD) {
+                ByteBuffer old = decompressed.remove(lumps[lumpNum].getOffset());
+                if (old != null) {
+                    cacheBytes -= old.limit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cache policy of a lump
+     * @param lumpNum The lump index
+     * @return The policy in effect
+     */
+    public CachePolicy getCachePolicy(int lumpNum) {
+        synchronized (decompressed) {
+            CachePolicy p = cachePolicies[lumpNum];
+            return (p == null) ? CachePolicy.KEEP : p;
+        }
+    }
+
+    /**
+     * Releases the underlying file. Any open file is closed and the references
+     * to the mapping and any decompressed lumps are dropped so that they may
+     * be reclaimed.
+     * @throws IOException If an error occurred closing the file
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        coreBuffer = null;
+        synchronized (decompressed) {
+            decompressed.clear();
+            cacheBytes = 0;
+        }
+        if (channel != null) {
+            FileChannel fc = channel;
+            channel = null;
+            fc.close();
+        }
     }
 
     /**
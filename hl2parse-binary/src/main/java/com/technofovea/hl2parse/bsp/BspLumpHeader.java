@@ -20,11 +20,14 @@ import java.nio.ByteBuffer;
  */
 public class BspLumpHeader {
 
-    //TODO handle the reordering in Version 21 L4d
     /**
      * The length of the lump identifier bytes
      */
     protected static int IDENT_LEN = 4;
+    /**
+     * The length in bytes of a lump header within the file
+     */
+    public static final int HEADER_LEN = 16;
     /**
      * The offset of the game lump within the data
      */
@@ -48,13 +51,30 @@ public class BspLumpHeader {
      * @throws BspParseException If the lump header is invalid.
      */
     public BspLumpHeader(ByteBuffer lumpData) throws BspParseException {
+        this(lumpData, false);
+    }
+
+    /**
+     * Creates a new BspLumpHeader, drawing from the given buffer
+     * @param lumpData The buffer to be read from. On success, the buffer's position will have been advanced.
+     * @param versionFirst True if the version precedes the offset and length,
+     * as in the version 21 maps of Left 4 Dead 2.
+     * @throws BspParseException If the lump header is invalid.
+     */
+    public BspLumpHeader(ByteBuffer lumpData, boolean versionFirst) throws BspParseException {
         final int originalPosition = lumpData.position();
         boolean resetPosition = true;
 
         try {
-            offset = lumpData.getInt();
-            length = lumpData.getInt();
-            version = lumpData.getInt();
+            if (versionFirst) {
+                version = lumpData.getInt();
+                offset = lumpData.getInt();
+                length = lumpData.getInt();
+            } else {
+                offset = lumpData.getInt();
+                length = lumpData.getInt();
+                version = lumpData.getInt();
+            }
             lumpData.get(identCode);
 
             if (offset < 0) {
@@ -77,11 +97,24 @@ public class BspLumpHeader {
      * @return A series of bytes of length {@link #IDENT_LEN}
      */
     public byte[] getIdentCode() {
-        return identCode;
+        return identCode.clone();
+    }
+
+    /**
+     * For compressed lumps the identifier bytes instead hold the size of the
+     * lump once decompressed.
+     * @return The uncompressed size in bytes, or zero if the lump is not compressed
+     */
+    public int getUncompressedSize() {
+        return (identCode[0] & 0xFF)
+                | ((identCode[1] & 0xFF) << 8)
+                | ((identCode[2] & 0xFF) << 16)
+                | ((identCode[3] & 0xFF) << 24);
     }
 
     /**
-     * Get the length of the data this header refers to
+     * Get the length of the data this header refers to. For compressed lumps
+     * this is the compressed length.
      * @return The data length in bytes
      */
     public int getLength() {
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.bsp;
+
+import com.technofovea.hl2parse.LzmaDecoder;
+import com.technofovea.hl2parse.OffsetBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable summary of a map's headers: its version, revision, lump
+ * directory and game-lump directory.
+ *
+ * Probing reads only the file header and the game-lump directory, using
+ * positional reads, so it is suitable for quickly cataloguing large numbers
+ * of maps. No lump data is decoded.
+ *
+ * @author Darien Hager
+ */
+public class BspProbe {
+
+    private static final Logger logger = LoggerFactory.getLogger(BspProbe.class);
+    private final File file;
+    private final long fileLength;
+    private final int version;
+    private final int mapRevision;
+    private final List<BspLumpHeader> lumps;
+    private final List<GameLumpHeader> gameLumps;
+
+    private BspProbe(File file, long fileLength, int version, int mapRevision, List<BspLumpHeader> lumps, List<GameLumpHeader> gameLumps) {
+        this.file = file;
+        this.fileLength = fileLength;
+        this.version = version;
+        this.mapRevision = mapRevision;
+        this.lumps = lumps;
+        this.gameLumps = gameLumps;
+    }
+
+    /**
+     * Reads the headers of the given map.
+     * @param map The map file
+     * @return A summary of the map
+     * @throws IOException If the file could not be opened or read
+     * @throws BspParseException If the headers are not valid
+     */
+    public static BspProbe probe(File map) throws IOException, BspParseException {
+        logger.debug("Probing map {}", map);
+        // Lazy and unmapped, so that only the header has been read
+        SourceMapAnalyzer sma = new SourceMapAnalyzer(map, true, false);
+        try {
+            List<BspLumpHeader> lumps = Collections.unmodifiableList(Arrays.asList(sma.lumps.clone()));
+            List<GameLumpHeader> gameLumps = readGameLumpDirectory(sma);
+            return new BspProbe(map, map.length(), sma.getVersion(), sma.getMapRevision(), lumps, gameLumps);
+        } finally {
+            sma.close();
+        }
+    }
+
+    /**
+     * Reads just the game-lump directory, without the game-lump data which
+     * follows it within the same lump.
+     */
+    private static List<GameLumpHeader> readGameLumpDirectory(SourceMapAnalyzer sma) throws BspParseException {
+        final BspLumpHeader dirLump = sma.lumps[SourceMapAnalyzer.LUMP_SOURCESPECIFIC];
+        if (dirLump.getLength() < 4) {
+            return Collections.emptyList();
+        }
+        try {
+            ByteBuffer buf = sma.getFileData(dirLump.getOffset(), 4).getBuf();
+            if (LzmaDecoder.isCompressed(buf)) {
+                // No way to read part of it, so decompress the lot
+                buf = sma.getLumpData(SourceMapAnalyzer.LUMP_SOURCESPECIFIC).getBuf();
+            } else {
+                final int count = buf.getInt(0);
+                if (count < 0 || count > (dirLump.getLength() - 4) / GameLumpHeader.HEADER_LEN) {
+                    throw new BspParseException("Game-lump directory claims to have " + count + " entries");
+                }
+                OffsetBuffer dir = sma.getFileData(dirLump.getOffset(), 4 + (count * GameLumpHeader.HEADER_LEN));
+                buf = dir.getBuf();
+            }
+            final int count = buf.getInt();
+            List<GameLumpHeader> ret = new ArrayList<GameLumpHeader>(count);
+            for (int i = 0; i < count; i++) {
+                ret.add(new GameLumpHeader(buf));
+            }
+            return Collections.unmodifiableList(ret);
+        } catch (BufferUnderflowException ex) {
+            throw new BspParseException(ex);
+        }
+    }
+
+    /**
+     * Get the file which was probed
+     * @return The map file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the size of the file at the time it was probed
+     * @return The length in bytes
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Get the format version of the map
+     * @return The version number
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the revision of the map
+     * @return The map revision
+     */
+    public int getMapRevision() {
+        return mapRevision;
+    }
+
+    /**
+     * Get the lump directory
+     * @return An unmodifiable list of lump headers, indexed by lump number
+     */
+    public List<BspLumpHeader> getLumps() {
+        return lumps;
+    }
+
+    /**
+     * Get the header of a single lump
+     * @param lumpNum The lump number
+     * @return The lump header
+     */
+    public BspLumpHeader getLump(int lumpNum) {
+        return lumps.get(lumpNum);
+    }
+
+    /**
+     * Get the game-lump directory
+     * @return An unmodifiable list of game-lump headers, in file order
+     */
+    public List<GameLumpHeader> getGameLumps() {
+        return gameLumps;
+    }
+
+    /**
+     * Finds a game-lump by its string name
+     * @see GameLumpHeader#stringToId(java.lang.String)
+     * @param name The name, ex. "prps"
+     * @return The header, or null if the map does not have that game-lump
+     */
+    public GameLumpHeader getGameLump(String name) {
+        final int id = GameLumpHeader.stringToId(name);
+        for (GameLumpHeader hdr : gameLumps) {
+            if (hdr.getId() == id) {
+                return hdr;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return file + " (version " + version + ", revision " + mapRevision + ")";
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.bsp;
+
+import java.nio.ByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the entity lump of a map, which is a series of blocks like
+ * <code>{ "classname" "info_player_start" "origin" "0 0 0" }</code>,
+ * straight from the lump's bytes. Each entity is reported to a
+ * {@link Visitor} as it is read, so the lump never has to be converted into
+ * one large string.
+ *
+ * As with the engine's own parser, quoted strings have no escape sequences,
+ * and a null byte marks the end of the data. A reader should only be used
+ * by one thread at a time.
+ *
+ * @author Darien Hager
+ */
+public class EntityLumpReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityLumpReader.class);
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+    /**
+     * Receives entities from the reader, in the order they appear.
+     */
+    public interface Visitor {
+
+        /**
+         * Called when the opening brace of an entity is found
+         * @throws BspParseException To abort reading
+         */
+        public void startEntity() throws BspParseException;
+
+        /**
+         * Called for each key/value pair within the current entity. Keys may
+         * be repeated.
+         * @param key The key, exactly as written
+         * @param value The value, exactly as written
+         * @throws BspParseException To abort reading
+         */
+        public void keyValue(String key, String value) throws BspParseException;
+
+        /**
+         * Called when the closing brace of an entity is found
+         * @throws BspParseException To abort reading
+         */
+        public void endEntity() throws BspParseException;
+    }
+    private final ByteBuffer data;
+    private char[] scratch = new char[256];
+    /**
+     * The text of the token found by the last call to {@link #readToken(int)}
+     */
+    private String lastToken;
+
+    /**
+     * Creates a new reader over the given data.
+     * @param lumpData The entity lump, from the current position to the limit.
+     * It is not modified.
+     */
+    public EntityLumpReader(ByteBuffer lumpData) {
+        this.data = lumpData.slice();
+    }
+
+    /**
+     * Reads every entity, passing each one to the visitor.
+     * @param visitor The visitor to receive entities
+     * @return The number of entities read
+     * @throws BspParseException If the data is malformed, or the visitor aborted
+     */
+    public int read(Visitor visitor) throws BspParseException {
+        int pos = 0;
+        int count = 0;
+        while (true) {
+            pos = skipSpace(pos);
+            if (atEnd(pos)) {
+                break;
+            }
+            if (data.get(pos) != '{') {
+                throw error("Expected '{' to begin an entity", pos);
+            }
+            pos++;
+            visitor.startEntity();
+            while (true) {
+                pos = skipSpace(pos);
+                if (atEnd(pos)) {
+                    throw error("Data ended inside an entity", pos);
+                }
+                final byte b = data.get(pos);
+                if (b == '}') {
+                    pos++;
+                    break;
+                } else if (b == '{') {
+                    throw error("Entities may not contain nested blocks", pos);
+                }
+                pos = readToken(pos);
+                String key = lastToken;
+
+                pos = skipSpace(pos);
+                if (atEnd(pos) || isBrace(data.get(pos))) {
+                    throw error("Key '" + key + "' has no value", pos);
+                }
+                pos = readToken(pos);
+                visitor.keyValue(key, lastToken);
+            }
+            visitor.endEntity();
+            count++;
+        }
+        logger.debug("Read {} entities from {} bytes", count, pos);
+        return count;
+    }
+
+    private boolean atEnd(int pos) {
+        return pos >= data.limit() || data.get(pos) == 0;
+    }
+
+    private static boolean isBrace(byte b) {
+        return b == '{' || b == '}';
+    }
+
+    private static boolean isSpace(byte b) {
+        // Control characters count as whitespace, but null ends the data
+        return b != 0 && (b & 0xFF) <= ' ';
+    }
+
+    private int skipSpace(int pos) {
+        final int limit = data.limit();
+        while (pos < limit) {
+            byte b = data.get(pos);
+            if (isSpace(b)) {
+                pos++;
+            } else if (b == '/' && pos + 1 < limit && data.get(pos + 1) == '/') {
+                // Comments aren't written by the compiler, but are easy to allow
+                while (pos < limit && data.get(pos) != '\n' && data.get(pos) != 0) {
+                    pos++;
+                }
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Reads a quoted or bare token, storing it in {@link #lastToken}.
+     * @param pos The position of the first character
+     * @return The position after the token
+     */
+    private int readToken(int pos) throws BspParseException {
+        final int limit = data.limit();
+        int start;
+        int end;
+        int next;
+        if (data.get(pos) == '"') {
+            start = pos + 1;
+            end = start;
+            while (end < limit && data.get(end) != '"') {
+                if (data.get(end) == 0) {
+                    throw error("Data ended inside a quoted string", end);
+                }
+                end++;
+            }
+            if (end >= limit) {
+                throw error("Data ended inside a quoted string", end);
+            }
+            next = end + 1;
+        } else {
+            start = pos;
+            end = pos;
+            while (end < limit) {
+                byte b = data.get(end);
+                if (b == 0 || b == '"' || isSpace(b) || isBrace(b)) {
+                    break;
+                }
+                end++;
+            }
+            next = end;
+        }
+        lastToken = decode(start, end - start);
+        return next;
+    }
+
+    /**
+     * Converts ASCII bytes to a string, with the same replacement of
+     * non-ASCII bytes as the charset decoder used for {@link SourceMapAnalyzer#getEntData()}.
+     */
+    private String decode(int start, int len) {
+        if (len > scratch.length) {
+            scratch = new char[Math.max(len, scratch.length * 2)];
+        }
+        for (int i = 0; i < len; i++) {
+            byte b = data.get(start + i);
+            scratch[i] = (b < 0) ? REPLACEMENT_CHAR : (char) b;
+        }
+        return new String(scratch, 0, len);
+    }
+
+    private BspParseException error(String message, int pos) {
+        return new BspParseException(message + " at entity lump offset " + pos);
+    }
+}
@@ -27,6 +27,14 @@ import org.slf4j.LoggerFactory;
 public class GameLumpHeader {
 
     private static final Logger logger = LoggerFactory.getLogger(GameLumpHeader.class);
+    /**
+     * The length in bytes of a game-lump header within the directory
+     */
+    public static final int HEADER_LEN = 16;
+    /**
+     * Flag set on game-lumps whose data is LZMA-compressed
+     */
+    public static final short FLAG_COMPRESSED = 0x0001;
     private int offset;
     private int length;
     private short version;
@@ -91,7 +99,8 @@ public class GameLumpHeader {
     }
 
     /**
-     * Get the length of the data this header refers to
+     * Get the length of the data this header refers to. For compressed
+     * game-lumps this is the length once decompressed.
      * @return The data length in bytes
      */
     public int getLength() {
@@ -122,6 +131,14 @@ public class GameLumpHeader {
         return flags;
     }
 
+    /**
+     * Checks whether the game-lump's data is compressed
+     * @return True if compressed
+     */
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
     /**
      * Get the game-lump's numeric ID
      * @return The ID
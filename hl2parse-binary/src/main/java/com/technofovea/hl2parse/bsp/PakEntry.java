@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.bsp;
+
+import com.technofovea.hl2parse.ByteBufferInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A single file packed into a map's pakfile lump.
+ *
+ * @see PakFile
+ * @author Darien Hager
+ */
+public class PakEntry {
+
+    /**
+     * Compression method for entries which are stored as-is
+     */
+    public static final int METHOD_STORED = 0;
+    /**
+     * Compression method for entries which are deflated
+     */
+    public static final int METHOD_DEFLATED = 8;
+    private final PakFile archive;
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final int crc;
+    private final int compressedSize;
+    private final int size;
+    private final int localOffset;
+
+    PakEntry(PakFile archive, String name, int flags, int method, int crc, int compressedSize, int size, int localOffset) {
+        this.archive = archive;
+        this.name = name;
+        this.flags = flags;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localOffset = localOffset;
+    }
+
+    /**
+     * Get the path of this entry as stored in the archive
+     * @return A relative path, ex. materials/maps/test/cubemapdefault.vtf
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the uncompressed size of this entry
+     * @return The size in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the size of this entry's payload within the archive
+     * @return The size in bytes
+     */
+    public int getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Get the CRC-32 checksum of the uncompressed data
+     * @return The checksum
+     */
+    public int getCrc() {
+        return crc;
+    }
+
+    /**
+     * Get the compression method
+     * @return One of {@link #METHOD_STORED} or {@link #METHOD_DEFLATED}
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * Get the general-purpose flags of this entry
+     * @return The flags, represented as a single number
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Checks whether the payload needs to be inflated before it can be used.
+     * @return True if compressed, false if stored.
+     */
+    public boolean isCompressed() {
+        return method != METHOD_STORED;
+    }
+
+    /**
+     * Checks whether this entry represents a directory rather than a file.
+     * @return True if a directory
+     */
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    /**
+     * Retrieves the payload exactly as it is stored in the archive, which
+     * for compressed entries is the deflated data.
+     * @return A read-only view into the map data
+     * @throws BspParseException If the entry's local header is invalid
+     */
+    public ByteBuffer getRawData() throws BspParseException {
+        int dataOffset = archive.getDataOffset(localOffset);
+        try {
+            return archive.slice(dataOffset, compressedSize);
+        } catch (IllegalArgumentException ex) {
+            throw new BspParseException("Pakfile entry " + name + " extends past the end of the lump", ex);
+        }
+    }
+
+    /**
+     * Retrieves the uncompressed content of this entry. For stored entries
+     * this is a view into the map data and no copy is made, while deflated
+     * entries are inflated into a new buffer.
+     * @return A little-endian buffer of the file content
+     * @throws IOException If the data could not be read or decompressed
+     * @throws BspParseException If the entry's local header is invalid
+     */
+    public ByteBuffer getData() throws IOException, BspParseException {
+        if (!isCompressed()) {
+            return getRawData();
+        }
+        byte[] content = new byte[size];
+        InputStream is = getInputStream();
+        try {
+            int total = 0;
+            while (total < content.length) {
+                int numRead = is.read(content, total, content.length - total);
+                if (numRead < 0) {
+                    throw new IOException("Pakfile entry " + name + " ended after " + total + " of " + size + " bytes");
+                }
+                total += numRead;
+            }
+        } finally {
+            is.close();
+        }
+        ByteBuffer ret = ByteBuffer.wrap(content);
+        ret.order(ByteOrder.LITTLE_ENDIAN);
+        return ret;
+    }
+
+    /**
+     * Opens a stream of the uncompressed content of this entry.
+     * @return A stream, inflating on the fly if necessary
+     * @throws IOException If the compression method is not supported
+     * @throws BspParseException If the entry's local header is invalid
+     */
+    public InputStream getInputStream() throws IOException, BspParseException {
+        InputStream raw = new ByteBufferInputStream(getRawData());
+        switch (method) {
+            case METHOD_STORED:
+                return raw;
+            case METHOD_DEFLATED:
+                // Raw deflate streams want one trailing dummy byte
+                InputStream padded = new SequenceInputStream(raw, new ByteArrayInputStream(new byte[1]));
+                final Inflater inflater = new Inflater(true);
+                return new InflaterInputStream(padded, inflater) {
+
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            default:
+                throw new IOException("Pakfile entry " + name + " uses unsupported compression method " + method);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
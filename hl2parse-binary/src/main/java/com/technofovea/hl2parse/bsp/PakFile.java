@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.bsp;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the ZIP archive which is embedded in the pakfile lump of a map. The
+ * central directory is parsed straight out of the map buffer, and entry data
+ * is handed out as views of that same buffer, so nothing is ever written to
+ * disk.
+ *
+ * Only what the map tools produce is supported: a single-disk archive whose
+ * entries are either stored or deflated.
+ *
+ * @author Darien Hager
+ */
+public class PakFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(PakFile.class);
+    static final Charset CHARSET = Charset.forName("UTF-8");
+    static final int SIG_END = 0x06054b50;
+    static final int SIG_CENTRAL = 0x02014b50;
+    static final int SIG_LOCAL = 0x04034b50;
+    static final int END_LEN = 22;
+    static final int CENTRAL_LEN = 46;
+    static final int LOCAL_LEN = 30;
+    static final int MAX_COMMENT_LEN = 0xFFFF;
+    /**
+     * The whole archive, little-endian. Only absolute reads are performed
+     * against it so that it may be shared between threads.
+     */
+    protected ByteBuffer data;
+    protected List<PakEntry> entries;
+    /**
+     * Entries keyed by normalized path, see {@link #normalizePath(java.lang.String)}
+     */
+    protected Map<String, PakEntry> index;
+    /**
+     * The same entries as {@link #index}, but sorted so that everything under
+     * a given directory can be listed.
+     */
+    protected SortedMap<String, PakEntry> sortedIndex;
+
+    /**
+     * Creates a new reader against the given archive data.
+     * @param archive The ZIP data, from the current position to the limit.
+     * @throws BspParseException If the central directory could not be parsed
+     */
+    public PakFile(ByteBuffer archive) throws BspParseException {
+        data = archive.slice();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            load();
+        } catch (BufferUnderflowException ex) {
+            throw new BspParseException(ex);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new BspParseException("Pakfile directory refers to data outside of the lump", ex);
+        }
+    }
+
+    private void load() throws BspParseException {
+        if (data.limit() == 0) {
+            logger.debug("Pakfile lump is empty");
+            entries = Collections.emptyList();
+            buildIndex();
+            return;
+        }
+
+        final int endPos = findEndRecord();
+        final int count = data.getShort(endPos + 10) & 0xFFFF;
+        final int dirOffset = data.getInt(endPos + 16);
+        logger.debug("Pakfile central directory has {} entries at offset {}", count, dirOffset);
+
+        List<PakEntry> found = new ArrayList<PakEntry>(count);
+        int pos = dirOffset;
+        for (int i = 0; i < count; i++) {
+            if (data.getInt(pos) != SIG_CENTRAL) {
+                throw new BspParseException("Bad central directory signature for pakfile entry #" + i);
+            }
+            int flags = data.getShort(pos + 8) & 0xFFFF;
+            int method = data.getShort(pos + 10) & 0xFFFF;
+            int crc = data.getInt(pos + 16);
+            int compressedSize = data.getInt(pos + 20);
+            int size = data.getInt(pos + 24);
+            int nameLen = data.getShort(pos + 28) & 0xFFFF;
+            int extraLen = data.getShort(pos + 30) & 0xFFFF;
+            int commentLen = data.getShort(pos + 32) & 0xFFFF;
+            int localOffset = data.getInt(pos + 42);
+
+            byte[] nameBytes = new byte[nameLen];
+            ByteBuffer nameView = data.duplicate();
+            nameView.position(pos + CENTRAL_LEN);
+            nameView.get(nameBytes);
+            String name = new String(nameBytes, CHARSET);
+
+            logger.trace("Pakfile entry {} method {} size {}", new Object[]{name, method, size});
+            found.add(new PakEntry(this, name, flags, method, crc, compressedSize, size, localOffset));
+            pos += CENTRAL_LEN + nameLen + extraLen + commentLen;
+        }
+        entries = Collections.unmodifiableList(found);
+        buildIndex();
+    }
+
+    private void buildIndex() {
+        index = new HashMap<String, PakEntry>(entries.size() * 2);
+        sortedIndex = new TreeMap<String, PakEntry>();
+        for (PakEntry entry : entries) {
+            String key = normalizePath(entry.getName());
+            if (index.containsKey(key)) {
+                logger.warn("Pakfile contains duplicate entry {}, only the first will be used", entry.getName());
+                continue;
+            }
+            index.put(key, entry);
+            sortedIndex.put(key, entry);
+        }
+    }
+
+    /**
+     * Converts a path into the form used as a lookup key: lower-case, with
+     * forward-slashes and no leading slashes.
+     * @param path The path to normalize
+     * @return The normalized path
+     */
+    public static String normalizePath(String path) {
+        String ret = path.trim().toLowerCase().replace('\\', '/');
+        int start = 0;
+        while (start < ret.length() && ret.charAt(start) == '/') {
+            start++;
+        }
+        return ret.substring(start);
+    }
+
+    /**
+     * Finds the end-of-central-directory record, which is at the end of the
+     * archive unless it is followed by a comment.
+     * @return The offset of the record
+     * @throws BspParseException If no record could be found
+     */
+    private int findEndRecord() throws BspParseException {
+        final int last = data.limit() - END_LEN;
+        final int stop = Math.max(0, last - MAX_COMMENT_LEN);
+        for (int pos = last; pos >= stop; pos--) {
+            if (data.getInt(pos) == SIG_END) {
+                return pos;
+            }
+        }
+        throw new BspParseException("Could not find the end of the pakfile central directory");
+    }
+
+    /**
+     * Locates the start of an entry's payload by skipping over its local header.
+     * @param localOffset The offset of the entry's local header
+     * @return The offset at which data begins
+     * @throws BspParseException If the local header is invalid
+     */
+    int getDataOffset(int localOffset) throws BspParseException {
+        try {
+            if (data.getInt(localOffset) != SIG_LOCAL) {
+                throw new BspParseException("Bad local header signature at pakfile offset " + localOffset);
+            }
+            int nameLen = data.getShort(localOffset + 26) & 0xFFFF;
+            int extraLen = data.getShort(localOffset + 28) & 0xFFFF;
+            return localOffset + LOCAL_LEN + nameLen + extraLen;
+        } catch (IndexOutOfBoundsException ex) {
+            throw new BspParseException("Pakfile local header lies outside of the lump", ex);
+        }
+    }
+
+    /**
+     * Creates a little-endian view of part of the archive.
+     * @param offset Offset within the archive
+     * @param len Length of the view
+     * @return A new buffer sharing content with the archive
+     */
+    ByteBuffer slice(int offset, int len) {
+        ByteBuffer view = data.duplicate();
+        view.limit(offset + len);
+        view.position(offset);
+        ByteBuffer ret = view.slice();
+        ret.order(ByteOrder.LITTLE_ENDIAN);
+        return ret;
+    }
+
+    /**
+     * Retrieve all entries in the order they appear in the central directory.
+     * @return An unmodifiable list of entries
+     */
+    public List<PakEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Get the number of entries in the archive.
+     * @return The entry count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Finds an entry by path. Matches are case-insensitive and either type of
+     * slash may be used.
+     * @param path The path to the packed file, ex. materials/maps/test/cubemapdefault.vtf
+     * @return The entry, or null if not found
+     */
+    public PakEntry getEntry(String path) {
+        return index.get(normalizePath(path));
+    }
+
+    /**
+     * Checks whether a file has been packed, without reading any of its data.
+     * @param path The path to the packed file
+     * @return True if present, false otherwise
+     */
+    public boolean contains(String path) {
+        return index.containsKey(normalizePath(path));
+    }
+
+    /**
+     * Lists every entry whose path starts with the given prefix, ex.
+     * materials/maps/ctf_2fort/ for all of a map's patched materials.
+     * @param prefix The path prefix, matched case-insensitively
+     * @return A list of entries sorted by normalized path, possibly empty
+     */
+    public List<PakEntry> getEntriesUnder(String prefix) {
+        String from = normalizePath(prefix);
+        // All keys with the prefix sort before the prefix plus the largest char
+        String to = from + Character.MAX_VALUE;
+        return new ArrayList<PakEntry>(sortedIndex.subMap(from, to).values());
+    }
+}
@@ -12,26 +12,22 @@
  */
 package com.technofovea.hl2parse.bsp;
 
+import com.technofovea.hl2parse.LzmaDecoder;
 import com.technofovea.hl2parse.OffsetBuffer;
 import com.technofovea.hl2parse.ParseUtil;
+import com.technofovea.hl2parse.entdata.EntdataException;
+import com.technofovea.hl2parse.entdata.MapEntity;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,14 +39,13 @@ import org.slf4j.LoggerFactory;
  */
 public class SourceMapAnalyzer extends BinaryBspAnalyzer {
 
-    protected static final int TRANSFER_BUF_SIZE = 5192;
     private static final Logger logger = LoggerFactory.getLogger(SourceMapAnalyzer.class);
     protected static final Charset CHARSET = Charset.forName("ASCII");
     protected static byte[] EXPECTED_HEADER = "VBSP".getBytes();
     /**
      * Source map versions supported
      */
-    protected static int[] EXPECTED_VERSIONS = new int[]{19, 20};
+    protected static int[] EXPECTED_VERSIONS = new int[]{19, 20, 21};
     /**
      * Number of lumps expected
      */
@@ -75,7 +70,7 @@ public class SourceMapAnalyzer extends BinaryBspAnalyzer {
     /**
      * The expected length of prop-names (padded on the end with null-bytes)
      */
-    public static int PROP_DICT_ENTRY_LEN = 128;
+    public static int PROP_DICT_ENTRY_LEN = StaticPropTable.NAME_LEN;
     /**
      * The bsp-format lump which contains the "game lumps"
      */
@@ -88,14 +83,18 @@ public class SourceMapAnalyzer extends BinaryBspAnalyzer {
      * The ID (in string form) identifying the game-lump for detail props
      */
     public static String GAMELUMP_PROPS_DETAIL = "prpd";
-    protected List<String> materialNames = new ArrayList<String>();
+    /**
+     * Lazily-loaded data, each of these remain null until the corresponding
+     * lump has been decoded.
+     */
+    protected List<String> materialNames;
     protected String entData;
     protected OffsetBuffer gameLumpData;
     protected GameLumpHeader[] gameLumpHeaders;
-    protected List<String> staticPropNames = new ArrayList<String>();
+    protected List<String> staticPropNames;
     protected HashMap<String, Set<Integer>> staticPropSkins;
-    protected ZipFile packedZip = null;
-    protected Map<String, File> extractedFiles = new HashMap<String, File>();
+    protected StaticPropTable staticProps;
+    protected PakFile packedFiles = null;
 
     /**
      * Creates a new analyzer to operate on the data in the given buffer.
@@ -103,19 +102,68 @@ public class SourceMapAnalyzer extends BinaryBspAnalyzer {
      * @throws BspParseException If an error occurs in parsing
      */
     public SourceMapAnalyzer(ByteBuffer bb) throws BspParseException {
+        this(bb, false);
+    }
+
+    /**
+     * Creates a new analyzer to operate on the data in the given buffer.
+     *
+     * In lazy mode only the lump directory is read up-front, and each lump is
+     * decoded (once) the first time one of the getters requires it. This makes
+     * it cheap to open a map when only some of its data is wanted.
+     *
+     * @param bb The buffer containing map data, from the current position to the limit.
+     * @param lazy If true, defer decoding of lumps until they are requested.
+     * @throws BspParseException If an error occurs in parsing
+     */
+    public SourceMapAnalyzer(ByteBuffer bb, boolean lazy) throws BspParseException {
         super(bb);
-        try {
+        if (!lazy) {
             loadGameLumps();
-
             loadTextures();
             loadEntityData();
-
             loadStaticPropData();
-        } catch (BufferUnderflowException ex) {
-            throw new BspParseException(ex);
         }
+    }
 
+    /**
+     * Creates a new analyzer which memory-maps the given file and decodes
+     * all lumps immediately. The file itself is closed as soon as it has been
+     * mapped.
+     * @param file The map file
+     * @throws IOException If the file could not be opened or mapped
+     * @throws BspParseException If an error occurs in parsing
+     */
+    public SourceMapAnalyzer(File file) throws IOException, BspParseException {
+        this(file, false, true);
+    }
 
+    /**
+     * Creates a new analyzer which operates on the given file.
+     *
+     * When not mapped, only the header is read up-front and the file stays
+     * open until {@link #close()} is called; combined with lazy mode, only the
+     * lumps which are actually requested are ever read from disk.
+     *
+     * @param file The map file
+     * @param lazy If true, defer decoding of lumps until they are requested.
+     * @param mapped True to memory-map the whole file, false to read lumps on demand
+     * @throws IOException If the file could not be opened or read
+     * @throws BspParseException If an error occurs in parsing
+     */
+    public SourceMapAnalyzer(File file, boolean lazy, boolean mapped) throws IOException, BspParseException {
+        super(file, mapped);
+        if (!lazy) {
+            try {
+                loadGameLumps();
+                loadTextures();
+                loadEntityData();
+                loadStaticPropData();
+            } catch (BspParseException ex) {
+                close();
+                throw ex;
+            }
+        }
     }
 
     @Override
@@ -138,23 +186,30 @@ public class SourceMapAnalyzer extends BinaryBspAnalyzer {
         return false;
     }
 
-    private void loadTextures() {
-        List<Integer> materialNameOffsets = new ArrayList<Integer>();
-
-        logger.debug("Loading world brush textures from lump {}", LUMP_MATERIALOFFSETS);
-        OffsetBuffer matOffsetZone = getLumpData(LUMP_MATERIALOFFSETS);
-        while (matOffsetZone.getBuf().remaining() > 0) {
-            materialNameOffsets.add(matOffsetZone.getBuf().getInt());
+    private synchronized void loadTextures() throws BspParseException {
+        if (materialNames != null) {
+            return;
         }
+        List<Integer> materialNameOffsets = new ArrayList<Integer>();
+        List<String> names = new ArrayList<String>();
+        try {
+            logger.debug("Loading world brush textures from lump {}", LUMP_MATERIALOFFSETS);
+            OffsetBuffer matOffsetZone = getLumpData(LUMP_MATERIALOFFSETS);
+            while (matOffsetZone.getBuf().remaining() > 0) {
+                materialNameOffsets.add(matOffsetZone.getBuf().getInt());
+            }
 
-        OffsetBuffer nameZone = getLumpData(LUMP_MATERIALNAMES);
-        for (int offset : materialNameOffsets) {
-            nameZone.getBuf().position(offset);
-            String name = ParseUtil.readString(nameZone.getBuf(), 512);
-            name = "materials/" + name;
-            materialNames.add(sanitizePath(name));
+            OffsetBuffer nameZone = getLumpData(LUMP_MATERIALNAMES);
+            for (int offset : materialNameOffsets) {
+                nameZone.getBuf().position(offset);
+                String name = ParseUtil.readString(nameZone.getBuf(), 512);
+                name = "materials/" + name;
+                names.add(sanitizePath(name));
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new BspParseException(ex);
         }
-
+        materialNames = names;
     }
 
     /**
@@ -183,22 +238,34 @@ public class SourceMapAnalyzer extends BinaryBspAnalyzer {
         return ret;
     }
 
-    private void loadEntityData() {
+    private synchronized void loadEntityData() throws BspParseException {
+        if (entData != null) {
+            return;
+        }
         logger.debug("Loading entity data from lump {}", LUMP_ENTITIES);
         OffsetBuffer entZone = getLumpData(LUMP_ENTITIES);
         entData = bufToAscii(entZone.getBuf());
     }
 
-    private void loadGameLumps() throws BspParseException {
+    private synchronized void loadGameLumps() throws BspParseException {
+        if (gameLumpHeaders != null) {
+            return;
+        }
         logger.debug("Loading lump {} containing game-lumps", LUMP_SOURCESPECIFIC);
-        gameLumpData = getLumpData(LUMP_SOURCESPECIFIC);
-        int lumpCount = gameLumpData.getBuf().getInt();
-        logger.debug("Game lump count {}", lumpCount);
-        gameLumpHeaders = new GameLumpHeader[lumpCount];
-        for (int i = 0; i < lumpCount; i++) {
-            logger.trace("Loading game-lump header #{}", i);
-            GameLumpHeader hdr = new GameLumpHeader(gameLumpData.getBuf());
-            gameLumpHeaders[i] = hdr;
+        try {
+            OffsetBuffer data = getLumpData(LUMP_SOURCESPECIFIC);
+            int lumpCount = data.getBuf().getInt();
+            logger.debug("Game lump count {}", lumpCount);
+            GameLumpHeader[] headers = new GameLumpHeader[lumpCount];
+            for (int i = 0; i < lumpCount; i++) {
+                logger.trace("Loading game-lump header #{}", i);
+                GameLumpHeader hdr = new GameLumpHeader(data.getBuf());
+                headers[i] = hdr;
+            }
+            gameLumpData = data;
+            gameLumpHeaders = headers;
+        } catch (BufferUnderflowException ex) {
+            throw new BspParseException(ex);
         }
     }
 
@@ -207,8 +274,10 @@ public class SourceMapAnalyzer extends BinaryBspAnalyzer {
      * @see GameLumpHeader#stringToId(java.lang.String) 
      * @param lumpId A game-lump numeric ID
      * @return A game-lump header or null if not found
+     * @throws BspParseException If the game-lump directory could not be parsed
      */
-    protected GameLumpHeader getGameLump(int lumpId) {
+    protected GameLumpHeader getGameLump(int lumpId) throws BspParseException {
+        loadGameLumps();
         GameLumpHeader hdr = null;
         for (int i = 0; i < gameLumpHeaders.length; i++) {
             GameLumpHeader temp = gameLumpHeaders[i];
@@ -229,181 +298,210 @@ public class SourceMapAnalyzer extends BinaryBspAnalyzer {
      * @see GameLumpHeader#stringToId(java.lang.String)
      * @param lumpId A game-lump numeric ID
      * @return A buffer, or null if not found.
+     * @throws BspParseException If the game-lump directory could not be parsed
      */
-    protected OffsetBuffer getGameLumpData(int lumpId) {
+    protected OffsetBuffer getGameLumpData(int lumpId) throws BspParseException {
 
         GameLumpHeader hdr = getGameLump(lumpId);
         if (hdr == null) {
             return null;
         }
 
-        return new OffsetBuffer(gameLumpData.getParent(), hdr.getOffset(), hdr.getLength());
+        // Game-lump offsets are relative to the start of the file
+        int storedLength = hdr.getLength();
+        if (hdr.isCompressed()) {
+            // The header gives the uncompressed length, so ask the LZMA header instead
+            OffsetBuffer lzmaHeader = getFileData(hdr.getOffset(), LzmaDecoder.HEADER_LEN);
+            try {
+                storedLength = LzmaDecoder.getCompressedLength(lzmaHeader.getBuf());
+            } catch (IOException ex) {
+                throw new BspParseException("Game-lump " + lumpId + " is flagged as compressed but has no valid LZMA header", ex);
+            }
+        }
+        // Game-lumps share the cache policy of the lump which contains them
+        return getDecompressedData(hdr.getOffset(), storedLength, getCachePolicy(LUMP_SOURCESPECIFIC));
     }
 
     /**
      * Loads and interprets data about static prop names and skins.
+     * @throws BspParseException If an error occurs in parsing
      */
-    protected void loadStaticPropData() {
+    protected synchronized void loadStaticPropData() throws BspParseException {
+        if (staticPropSkins != null) {
+            return;
+        }
         final int id = GameLumpHeader.stringToId(GAMELUMP_PROPS);
         logger.debug("Loading static prop data from gamelump {} ({})", GAMELUMP_PROPS, id);
         GameLumpHeader hdr = getGameLump(id);
-        OffsetBuffer propLumpData = getGameLumpData(id);
-
-
-        final int numDictEntries = propLumpData.getBuf().getInt();
-        logger.debug("Propname dictionary entry count {}", numDictEntries);
-        byte[] strBuf = new byte[PROP_DICT_ENTRY_LEN];
-        for (int i = 0; i < numDictEntries; i++) {
-            propLumpData.getBuf().get(strBuf);
-            String name = ParseUtil.readString(strBuf, strBuf.length);
-            name = sanitizePath(name);
-            staticPropNames.add(name);
-        }
-
-        final int totalLeafEntries = propLumpData.getBuf().getInt();
-        logger.debug("Prop leaf entry count {}", totalLeafEntries);
-        for (int i = 0; i < totalLeafEntries; i++) {
-            // We have no use for this data... yet?
-            //TODO just advance the buffer instead of reading this
-            int leaf = propLumpData.getBuf().getShort();
+        if (hdr == null) {
+            throw new BspParseException("Static prop game-lump is missing");
         }
-
-
-        staticPropSkins = new HashMap<String, Set<Integer>>();
-
-        // Now, the meat of the matter!
-        final int propCount = propLumpData.getBuf().getInt();
-        logger.debug("Prop usage count {}", propCount);
-        for (int i = 0; i < propCount; i++) {
-            logger.trace("Loading prop instance #{}", i);
-            GamePropSection section = new GamePropSection(hdr, propLumpData.getBuf());
-
-            int propNameIndex = section.getPropNameIndex();
-            int skin = section.getSkin();
-            if (propNameIndex < 0 || propNameIndex >= staticPropNames.size()) {
-                logger.error("Prop instance specifies a name index ({}) which is invalid", propNameIndex);
+        OffsetBuffer propLumpData = getGameLumpData(id);
+        StaticPropTable table = new StaticPropTable(hdr, propLumpData.getBuf());
+
+        HashMap<String, Set<Integer>> propSkins = new HashMap<String, Set<Integer>>();
+        StaticPropTable.Cursor prop = table.cursor();
+        for (int i = 0; i < table.size(); i++) {
+            prop.moveTo(i);
+            String propName = prop.getName();
+            int skin = prop.getSkin();
+            if (propName == null) {
+                logger.error("Prop instance specifies a name index ({}) which is invalid", prop.getNameIndex());
+                continue;
             }
-            String propName = staticPropNames.get(propNameIndex);
-            logger.trace("Prop named '{}' ({}) with skin {} ", new Object[]{propName, propNameIndex, skin});
-
+            logger.trace("Prop named '{}' ({}) with skin {} ", new Object[]{propName, prop.getNameIndex(), skin});
 
-            if (staticPropSkins.containsKey(propName)) {
-                staticPropSkins.get(propName).add(skin);
-            } else {
-                Set<Integer> skinsUsed = new HashSet<Integer>();
-                skinsUsed.add(skin);
-                staticPropSkins.put(propName, skinsUsed);
+            Set<Integer> skinsUsed = propSkins.get(propName);
+            if (skinsUsed == null) {
+                skinsUsed = new HashSet<Integer>();
+                propSkins.put(propName, skinsUsed);
             }
+            skinsUsed.add(skin);
         }
 
+        staticProps = table;
+        staticPropNames = table.getNames();
+        staticPropSkins = propSkins;
     }
 
     /**
-     * Retrieves a ZipFile that contains details about files which have been
-     * packed into this BSP. Note that these entries are read-only.
-     * @return A ZipFile.
-     * @throws IOException
+     * Retrieves the archive of files which have been packed into this BSP.
+     * The archive is read directly from the map data, nothing is extracted
+     * to disk.
+     * @return The packed-file archive
+     * @throws BspParseException If the pakfile lump could not be parsed
      */
-    public ZipFile getPackedFiles() throws IOException {
+    public PakFile getPackedFiles() throws BspParseException {
         synchronized (this) {
-            if (packedZip == null) {
-                logger.debug("Initializing temp file for extracting packed BSP data");
-                File tempfile = File.createTempFile("packbsp_pak_", ".zip");
-                tempfile.deleteOnExit();
-                logger.debug("Temp file at: {}", tempfile.getAbsolutePath());
-                tempfile.deleteOnExit();
+            if (packedFiles == null) {
+                logger.debug("Reading packed file directory from lump {}", LUMP_PAKFILE);
                 OffsetBuffer buf = getLumpData(LUMP_PAKFILE);
-                FileChannel fc = new FileOutputStream(tempfile, false).getChannel();
-                fc.write(buf.getBuf());
-                fc.close();
-                packedZip = new ZipFile(tempfile, ZipFile.OPEN_READ);
+                packedFiles = new PakFile(buf.getBuf());
             }
         }
-        return packedZip;
-
-
+        return packedFiles;
     }
 
     /**
-     * Retrieves an File for the given packed file, if it exists. Note
-     * that matches are case-insensitive. Files returned are marked for deletion
-     * when the JVM exits.
-     * 
-     * @param path The path to the packed file, ex. materials/maps/test/cubemapdefault.vtf
-     * @return A temporary File containing the extracted data, or null if not found.
-     * @throws IOException If an error occurred trying to extract and save the data.
+     * Retrieves the entry for the given packed file, if it exists. Note
+     * that matches are case-insensitive.
+     *
+     * @param path The path to the packed file, ex. materials/maps/test/cubemapdefault.vmt
+     * @return The entry, whose data may be read without any temporary files, or null if not found.
+     * @throws BspParseException If the pakfile lump could not be parsed
      */
-    public File getPackedFile(String path) throws IOException {
-
-        path = path.toLowerCase();
-        if (extractedFiles.containsKey(path)) {
-            logger.debug("Packed file {} was already extracted once, returning cached File reference", path);
-            return extractedFiles.get(path);
-        }
-
-        ZipFile zf = getPackedFiles();
-        ZipEntry found = null;
-        Enumeration<? extends ZipEntry> en = zf.entries();
-        while (en.hasMoreElements()) {
-            ZipEntry entry = en.nextElement();
-            if (entry.getName().equalsIgnoreCase(path)) {
-                logger.debug("Packed file found in zip data: ", entry.getName());
-                found = entry;
-                break;
-            }
-        }
+    public PakEntry getPackedFile(String path) throws BspParseException {
+        PakEntry found = getPackedFiles().getEntry(path);
         if (found == null) {
             logger.debug("Packed file {} could not be found in zip data.", path);
-            return null;
         }
+        return found;
+    }
 
-        //TODO change suffix to match entry name suffix?
-        File tempfile = File.createTempFile("packbsp_extracted_", ".file");
-        tempfile.deleteOnExit();
-        InputStream is = zf.getInputStream(found);
-        FileOutputStream fos = new FileOutputStream(tempfile);
-        byte[] buffer = new byte[TRANSFER_BUF_SIZE];
-        int numRead = 0;
-        while (numRead > -1) {
-            fos.write(buffer, 0, numRead);
-            numRead = is.read(buffer);
-        }
-        fos.close();
-        logger.debug("Packed file {} extracted to location: {}", path, tempfile.getAbsolutePath());
-
-        extractedFiles.put(path, tempfile);
-        return tempfile;
-
-
+    /**
+     * Checks whether the given file has been packed into this map, without
+     * extracting it. Note that matches are case-insensitive.
+     * @param path The path to the packed file
+     * @return True if present, false otherwise
+     * @throws BspParseException If the pakfile lump could not be parsed
+     */
+    public boolean hasPackedFile(String path) throws BspParseException {
+        return getPackedFiles().contains(path);
     }
 
     /**
      * Get a set of all brush-textures being used in the map. This may include
      * tool-textures that the user never sees, such as nodraw.
      * @return A set of relative texture paths
+     * @throws BspParseException If the texture lumps could not be parsed
      */
-    public Set<String> getBrushTextures() {
+    public Set<String> getBrushTextures() throws BspParseException {
+        loadTextures();
         return new HashSet(materialNames);
     }
 
     /**
      * Get the entity-data for the map.
      * @return A string of entity data.
+     * @throws BspParseException If the entity lump could not be read
      */
-    public String getEntData() {
+    public String getEntData() throws BspParseException {
+        loadEntityData();
         return entData;
     }
 
+    /**
+     * Reads the entity data for the map one entity at a time, without first
+     * converting the whole lump into a string as {@link #getEntData()} does.
+     * @param visitor The visitor to receive each entity
+     * @return The number of entities read
+     * @throws BspParseException If the entity lump could not be read, or the visitor aborted
+     */
+    public int visitEntities(EntityLumpReader.Visitor visitor) throws BspParseException {
+        logger.debug("Streaming entity data from lump {}", LUMP_ENTITIES);
+        OffsetBuffer entZone = getLumpData(LUMP_ENTITIES);
+        return new EntityLumpReader(entZone.getBuf()).read(visitor);
+    }
+
+    /**
+     * Decodes the entities of the map directly from the entity lump, without
+     * building an intermediate string or VDF tree. Entity class-names and keys
+     * are interned. The list is built afresh on each call.
+     * @return A list of entities, in the order they appear in the map
+     * @throws BspParseException If the entity lump could not be read, or an
+     * entity was not valid
+     */
+    public List<MapEntity> getEntities() throws BspParseException {
+        final List<MapEntity> entities = new ArrayList<MapEntity>();
+        visitEntities(new EntityLumpReader.Visitor() {
+
+            // Raw pairs, re-used for each entity. MapEntity groups them by key.
+            private final List<String> keys = new ArrayList<String>();
+            private final List<String> values = new ArrayList<String>();
+
+            public void startEntity() {
+                keys.clear();
+                values.clear();
+            }
+
+            public void keyValue(String key, String value) {
+                keys.add(key);
+                values.add(value);
+            }
+
+            public void endEntity() throws BspParseException {
+                try {
+                    entities.add(new MapEntity(keys, values));
+                } catch (EntdataException ex) {
+                    throw new BspParseException("Invalid entity #" + entities.size(), ex);
+                }
+            }
+        });
+        return entities;
+    }
+
     /**
      * Retrieve a mapping of prop-names (actually relative paths) to a set of
      * skin IDs which they use.
      * @return A mapping where each key is a prop-path, and each value is a set
      * of skins that are referenced for that prop.
+     * @throws BspParseException If the static prop game-lump could not be parsed
      */
-    public HashMap<String, Set<Integer>> getStaticPropSkins() {
+    public HashMap<String, Set<Integer>> getStaticPropSkins() throws BspParseException {
+        loadStaticPropData();
         return staticPropSkins;
     }
 
+    /**
+     * Retrieve every static prop placed in the map, with all of its fields.
+     * @return A table of static props
+     * @throws BspParseException If the static prop game-lump could not be parsed
+     */
+    public StaticPropTable getStaticProps() throws BspParseException {
+        loadStaticPropData();
+        return staticProps;
+    }
+
     /**
      * Sanitizes a path, turning into lowercase and using forward-slashes
      * @param path The path to sanitize
@@ -0,0 +1,346 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.bsp;
+
+import com.technofovea.hl2parse.ParseUtil;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds every static prop in a map's "prps" game-lump. Rather than one object
+ * per prop, each field is stored in its own primitive array indexed by prop
+ * number, so that maps with many thousands of props decode without creating
+ * any per-prop objects. Individual props are inspected through a reusable
+ * {@link Cursor}.
+ *
+ * @see GamePropSection
+ * @author Darien Hager
+ */
+public class StaticPropTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaticPropTable.class);
+    /**
+     * The expected length of prop-names (padded on the end with null-bytes)
+     */
+    public static final int NAME_LEN = 128;
+    /**
+     * Length of a prop entry in version 4 of the lump, later versions append
+     * extra fields.
+     */
+    static final int BASE_ENTRY_LEN = 56;
+    protected int version;
+    protected List<String> names;
+    protected short[] leaves;
+    protected int count;
+    protected float[] origins;
+    protected float[] angles;
+    protected float[] lightingOrigins;
+    protected short[] nameIndexes;
+    protected short[] firstLeaves;
+    protected short[] leafCounts;
+    protected byte[] solids;
+    protected byte[] flags;
+    protected int[] skins;
+    protected float[] fadeMinDists;
+    protected float[] fadeMaxDists;
+    protected float[] forcedFadeScales;
+
+    /**
+     * Decodes the static prop game-lump.
+     * @param hdr The header of the game-lump, used for version information
+     * @param lumpData The game-lump data, from the current position to the limit
+     * @throws BspParseException If the data could not be parsed
+     */
+    public StaticPropTable(GameLumpHeader hdr, ByteBuffer lumpData) throws BspParseException {
+        version = hdr.getVersion();
+        ByteBuffer buf = lumpData.slice();
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            load(buf);
+        } catch (BufferUnderflowException ex) {
+            throw new BspParseException(ex);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new BspParseException("Static prop data is truncated", ex);
+        }
+    }
+
+    /**
+     * Get the length of a single prop entry for a given version of the lump.
+     * @param version The game-lump version
+     * @return A length in bytes
+     */
+    static int getEntryLength(int version) {
+        int len = BASE_ENTRY_LEN;
+        if (version >= 5) {
+            len += 4; // Forced fade scale
+        }
+        if (version >= 6) {
+            len += 4; // Min/max DX level
+        }
+        return len;
+    }
+
+    private void load(ByteBuffer buf) throws BspParseException {
+        final int numDictEntries = buf.getInt();
+        logger.debug("Propname dictionary entry count {}", numDictEntries);
+        String[] nameArr = new String[numDictEntries];
+        byte[] strBuf = new byte[NAME_LEN];
+        for (int i = 0; i < numDictEntries; i++) {
+            buf.get(strBuf);
+            nameArr[i] = SourceMapAnalyzer.sanitizePath(ParseUtil.readString(strBuf, strBuf.length));
+        }
+        names = Collections.unmodifiableList(Arrays.asList(nameArr));
+
+        final int totalLeafEntries = buf.getInt();
+        logger.debug("Prop leaf entry count {}", totalLeafEntries);
+        leaves = new short[totalLeafEntries];
+        buf.asShortBuffer().get(leaves);
+        buf.position(buf.position() + (totalLeafEntries * 2));
+
+        count = buf.getInt();
+        logger.debug("Prop usage count {}", count);
+        int stride = getEntryLength(version);
+        if (count > 0 && buf.remaining() != stride * count && buf.remaining() % count == 0) {
+            // Some branches use their own layouts, trust the actual size
+            int actual = buf.remaining() / count;
+            if (actual < BASE_ENTRY_LEN) {
+                throw new BspParseException("Static prop entries are only " + actual + " bytes long");
+            }
+            logger.warn("Static prop lump version {} has {}-byte entries, expected {}", new Object[]{version, actual, stride});
+            stride = actual;
+        }
+
+        origins = new float[count * 3];
+        angles = new float[count * 3];
+        lightingOrigins = new float[count * 3];
+        nameIndexes = new short[count];
+        firstLeaves = new short[count];
+        leafCounts = new short[count];
+        solids = new byte[count];
+        flags = new byte[count];
+        skins = new int[count];
+        fadeMinDists = new float[count];
+        fadeMaxDists = new float[count];
+        forcedFadeScales = new float[count];
+
+        final int start = buf.position();
+        for (int i = 0; i < count; i++) {
+            final int pos = start + (i * stride);
+            final int v = i * 3;
+            origins[v] = buf.getFloat(pos);
+            origins[v + 1] = buf.getFloat(pos + 4);
+            origins[v + 2] = buf.getFloat(pos + 8);
+            angles[v] = buf.getFloat(pos + 12);
+            angles[v + 1] = buf.getFloat(pos + 16);
+            angles[v + 2] = buf.getFloat(pos + 20);
+            nameIndexes[i] = buf.getShort(pos + 24);
+            firstLeaves[i] = buf.getShort(pos + 26);
+            leafCounts[i] = buf.getShort(pos + 28);
+            solids[i] = buf.get(pos + 30);
+            flags[i] = buf.get(pos + 31);
+            skins[i] = buf.getInt(pos + 32);
+            fadeMinDists[i] = buf.getFloat(pos + 36);
+            fadeMaxDists[i] = buf.getFloat(pos + 40);
+            lightingOrigins[v] = buf.getFloat(pos + 44);
+            lightingOrigins[v + 1] = buf.getFloat(pos + 48);
+            lightingOrigins[v + 2] = buf.getFloat(pos + 52);
+            if (version >= 5) {
+                forcedFadeScales[i] = buf.getFloat(pos + 56);
+            }
+        }
+    }
+
+    /**
+     * Get the version of the static prop game-lump
+     * @return A version number
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the number of static prop instances
+     * @return The prop count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the dictionary of model paths which props refer to by index.
+     * @return An unmodifiable list of sanitized model paths
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Get the list of leaves which props occupy. Each prop refers to a range
+     * within this list, see {@link Cursor#getFirstLeaf()}.
+     * @return The leaf list; this is the table's own array and should not be modified
+     */
+    public short[] getLeaves() {
+        return leaves;
+    }
+
+    /**
+     * Creates a new cursor, initially positioned on the first prop.
+     * @return A new cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A movable view onto a single row of the table. One cursor may be
+     * re-positioned over every prop without allocating anything.
+     */
+    public class Cursor {
+
+        private int index = 0;
+
+        Cursor() {
+        }
+
+        /**
+         * Positions this cursor on a given prop
+         * @param propIndex The prop number, from zero to {@link StaticPropTable#size()} exclusive
+         * @return This cursor, for chaining
+         */
+        public Cursor moveTo(int propIndex) {
+            if (propIndex < 0 || propIndex >= count) {
+                throw new IndexOutOfBoundsException("Prop index " + propIndex + " is out of range, there are " + count + " props");
+            }
+            index = propIndex;
+            return this;
+        }
+
+        /**
+         * Get the prop number this cursor is positioned on
+         * @return The prop index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public float getOriginX() {
+            return origins[index * 3];
+        }
+
+        public float getOriginY() {
+            return origins[index * 3 + 1];
+        }
+
+        public float getOriginZ() {
+            return origins[index * 3 + 2];
+        }
+
+        /**
+         * The euler rotation of the prop
+         * @return The pitch angle
+         */
+        public float getPitch() {
+            return angles[index * 3];
+        }
+
+        public float getYaw() {
+            return angles[index * 3 + 1];
+        }
+
+        public float getRoll() {
+            return angles[index * 3 + 2];
+        }
+
+        public float getLightingOriginX() {
+            return lightingOrigins[index * 3];
+        }
+
+        public float getLightingOriginY() {
+            return lightingOrigins[index * 3 + 1];
+        }
+
+        public float getLightingOriginZ() {
+            return lightingOrigins[index * 3 + 2];
+        }
+
+        /**
+         * Get the index of this prop's model within {@link StaticPropTable#getNames()}
+         * @return A dictionary index
+         */
+        public int getNameIndex() {
+            return nameIndexes[index] & 0xFFFF;
+        }
+
+        /**
+         * Get the model path of this prop
+         * @return A sanitized path, or null if the name index is invalid
+         */
+        public String getName() {
+            int nameIndex = getNameIndex();
+            if (nameIndex >= names.size()) {
+                return null;
+            }
+            return names.get(nameIndex);
+        }
+
+        public int getFirstLeaf() {
+            return firstLeaves[index] & 0xFFFF;
+        }
+
+        public int getLeafCount() {
+            return leafCounts[index] & 0xFFFF;
+        }
+
+        public byte getSolid() {
+            return solids[index];
+        }
+
+        /**
+         * Retrieves any flags associated with this prop as a byte
+         * @return A byte representing eight boolean flags.
+         */
+        public byte getFlags() {
+            return flags[index];
+        }
+
+        /**
+         * Get the skin ID associated with this prop
+         * @return A zero-indexed skin ID
+         */
+        public int getSkin() {
+            return skins[index];
+        }
+
+        public float getFadeMinDist() {
+            return fadeMinDists[index];
+        }
+
+        public float getFadeMaxDist() {
+            return fadeMaxDists[index];
+        }
+
+        /**
+         * Only present in version 5 and later
+         * @return The forced fade scale, or zero
+         */
+        public float getForcedFadeScale() {
+            return forcedFadeScales[index];
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The animations of a model, from its mstudioanimdesc_t array. The frame
+ * data of an animation is either stored within the model, or in one of the
+ * blocks of a separate .ani file. The blocks are described by this table as
+ * well.
+ *
+ * @author Darien Hager
+ */
+public class AnimationTable extends ModelTable {
+
+    /**
+     * Length of a mstudioanimdesc_t
+     */
+    static final int ENTRY_LEN = 100;
+    static final int NAME = 4;
+    static final int FPS = 8;
+    static final int FLAGS = 12;
+    static final int FRAME_COUNT = 16;
+    static final int MOVEMENT_COUNT = 20;
+    static final int ANIM_BLOCK = 52;
+    static final int ANIM_INDEX = 56;
+    static final int SECTION_FRAMES = 84;
+    /**
+     * Length of a mstudioanimblock_t
+     */
+    static final int BLOCK_LEN = 8;
+    private final int blockOffset;
+    private final int blockCount;
+    private final int blockNameOffset;
+
+    AnimationTable(ByteBuffer model, int offset, int count, int blockOffset, int blockCount, int blockNameOffset) throws ModelParseException {
+        super(model, ModelSection.LOCALANIM, offset, count, ENTRY_LEN, NAME);
+        if (blockCount < 0 || (blockCount > 0 && blockOffset < 0) || (long) blockOffset + ((long) blockCount * BLOCK_LEN) > model.limit()) {
+            throw new ModelParseException("Animation block table of " + blockCount + " entries at offset " + blockOffset + " does not fit in the model");
+        }
+        this.blockOffset = blockOffset;
+        this.blockCount = blockCount;
+        this.blockNameOffset = blockNameOffset;
+    }
+
+    /**
+     * Get the playback rate of an animation
+     * @param anim The animation number
+     * @return Frames per second
+     */
+    public float getFps(int anim) {
+        return buf.getFloat(position(anim) + FPS);
+    }
+
+    public int getFlags(int anim) {
+        return buf.getInt(position(anim) + FLAGS);
+    }
+
+    public int getFrameCount(int anim) {
+        return buf.getInt(position(anim) + FRAME_COUNT);
+    }
+
+    /**
+     * Get the number of movement segments, which describe how far the
+     * model travels while the animation plays
+     * @param anim The animation number
+     * @return The movement count
+     */
+    public int getMovementCount(int anim) {
+        return buf.getInt(position(anim) + MOVEMENT_COUNT);
+    }
+
+    /**
+     * Get the block which holds an animation's frame data
+     * @param anim The animation number
+     * @return A block number, or zero if the data is within the model itself
+     */
+    public int getAnimBlock(int anim) {
+        return buf.getInt(position(anim) + ANIM_BLOCK);
+    }
+
+    /**
+     * Get where an animation's frame data starts
+     * @param anim The animation number
+     * @return If {@link #getAnimBlock(int)} is zero, an offset relative to
+     * the start of the animation's descriptor. Otherwise an offset relative
+     * to the start of the block.
+     */
+    public int getAnimIndex(int anim) {
+        return buf.getInt(position(anim) + ANIM_INDEX);
+    }
+
+    /**
+     * Get the number of frames in each section, for long animations which
+     * are split into sections so that they can be loaded piece by piece
+     * @param anim The animation number
+     * @return The frames per section, or zero if it is not split
+     */
+    public int getSectionFrames(int anim) {
+        return buf.getInt(position(anim) + SECTION_FRAMES);
+    }
+
+    /**
+     * Get the number of animation blocks. The first is a placeholder, which
+     * stands for data held within the model.
+     * @return The block count
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    private int blockPosition(int block) {
+        if (block < 0 || block >= blockCount) {
+            throw new IndexOutOfBoundsException("Animation block " + block + " is out of range, there are " + blockCount + " blocks");
+        }
+        return blockOffset + (block * BLOCK_LEN);
+    }
+
+    /**
+     * Get where an animation block starts
+     * @param block The block number
+     * @return The offset of the block within the .ani file
+     */
+    public int getBlockStart(int block) {
+        return buf.getInt(blockPosition(block));
+    }
+
+    /**
+     * Get where an animation block ends
+     * @param block The block number
+     * @return The offset of the end of the block within the .ani file
+     */
+    public int getBlockEnd(int block) {
+        return buf.getInt(blockPosition(block) + 4);
+    }
+
+    /**
+     * Get the file which holds the animation blocks
+     * @return A path such as "models/foo_animations.ani", or a blank string
+     * if all of the data is within the model
+     */
+    public String getBlockFileName() {
+        if (blockNameOffset <= 0) {
+            return "";
+        }
+        return ModelData.fixPath(readString(blockNameOffset));
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The attachment points of a model, from its mstudioattachment_t array.
+ * Attachments are named places, such as a muzzle or a hand, which effects
+ * and other models can be positioned at.
+ *
+ * @author Darien Hager
+ */
+public class AttachmentTable extends ModelTable {
+
+    /**
+     * Length of a mstudioattachment_t
+     */
+    static final int ENTRY_LEN = 92;
+    static final int FLAGS = 4;
+    static final int BONE = 8;
+    static final int LOCAL = 12;
+
+    AttachmentTable(ByteBuffer model, int offset, int count) throws ModelParseException {
+        super(model, ModelSection.LOCALATTACHMENT, offset, count, ENTRY_LEN, 0);
+    }
+
+    public int getFlags(int attachment) {
+        return buf.getInt(position(attachment) + FLAGS);
+    }
+
+    /**
+     * Get the bone which an attachment follows
+     * @param attachment The attachment number
+     * @return An index into the {@link BoneTable}
+     */
+    public int getBone(int attachment) {
+        return buf.getInt(position(attachment) + BONE);
+    }
+
+    /**
+     * Get the position and orientation of an attachment, relative to its bone
+     * @param attachment The attachment number
+     * @param dest An array of at least 12 floats, which is filled with a
+     * 3x4 matrix in row order
+     * @return The destination array
+     */
+    public float[] getLocalTransform(int attachment, float[] dest) {
+        return readFloats(position(attachment) + LOCAL, dest, 12);
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The body parts of a model, from its mstudiobodyparts_t array, along with
+ * the sub-models and meshes within them. Only one sub-model of each body
+ * part is shown at a time. Each mesh is drawn with a single material, and
+ * its triangles are found in the matching mesh of a {@link VtxData}.
+ *
+ * @author Darien Hager
+ */
+public class BodyPartTable extends ModelTable {
+
+    /**
+     * Length of a mstudiobodyparts_t
+     */
+    static final int ENTRY_LEN = 16;
+    static final int MODEL_COUNT = 4;
+    static final int BASE = 8;
+    static final int MODEL_INDEX = 12;
+    /**
+     * Length of a mstudiomodel_t
+     */
+    static final int MODEL_LEN = 148;
+    static final int MODEL_NAME_LEN = 64;
+    static final int MODEL_RADIUS = 68;
+    static final int MESH_COUNT = 72;
+    static final int MESH_INDEX = 76;
+    static final int MODEL_VERTEX_COUNT = 80;
+    static final int MODEL_VERTEX_INDEX = 84;
+    /**
+     * Length of a mstudiomesh_t
+     */
+    static final int MESH_LEN = 116;
+    static final int MESH_VERTEX_COUNT = 8;
+    static final int MESH_VERTEX_OFFSET = 12;
+    static final int MESH_LOD_VERTEX_COUNTS = 52;
+
+    BodyPartTable(ByteBuffer model, int offset, int count) throws ModelParseException {
+        super(model, ModelSection.BODYPART, offset, count, ENTRY_LEN, 0);
+    }
+
+    /**
+     * Get the number of sub-models in a body part
+     * @param part The body part number
+     * @return The sub-model count
+     */
+    public int getModelCount(int part) {
+        return buf.getInt(position(part) + MODEL_COUNT);
+    }
+
+    /**
+     * Get the multiplier which the chosen sub-model of a body part is given
+     * in an entity's combined body number
+     * @param part The body part number
+     * @return The base
+     */
+    public int getBase(int part) {
+        return buf.getInt(position(part) + BASE);
+    }
+
+    private int modelPosition(int part, int model) {
+        final int pos = position(part);
+        final int models = buf.getInt(pos + MODEL_COUNT);
+        if (model < 0 || model >= models) {
+            throw new IndexOutOfBoundsException("Model " + model + " is out of range, body part " + part + " has " + models + " models");
+        }
+        return pos + buf.getInt(pos + MODEL_INDEX) + (model * MODEL_LEN);
+    }
+
+    /**
+     * Get the name of a sub-model
+     * @param part The body part number
+     * @param model The sub-model number
+     * @return The name, which is blank for an empty sub-model
+     */
+    public String getModelName(int part, int model) {
+        String name = readString(modelPosition(part, model));
+        if (name.length() > MODEL_NAME_LEN) {
+            // Not terminated within its fixed-size field
+            name = name.substring(0, MODEL_NAME_LEN);
+        }
+        return name;
+    }
+
+    public float getModelRadius(int part, int model) {
+        return buf.getFloat(modelPosition(part, model) + MODEL_RADIUS);
+    }
+
+    /**
+     * Get the number of meshes in a sub-model
+     * @param part The body part number
+     * @param model The sub-model number
+     * @return The mesh count
+     */
+    public int getMeshCount(int part, int model) {
+        return buf.getInt(modelPosition(part, model) + MESH_COUNT);
+    }
+
+    /**
+     * Get the number of vertices in a sub-model, at the highest level of detail
+     * @param part The body part number
+     * @param model The sub-model number
+     * @return The vertex count
+     */
+    public int getModelVertexCount(int part, int model) {
+        return buf.getInt(modelPosition(part, model) + MODEL_VERTEX_COUNT);
+    }
+
+    /**
+     * Get where the vertices of a sub-model start
+     * @param part The body part number
+     * @param model The sub-model number
+     * @return An index into {@link VvdData#getVertexData()}, in units of
+     * whole vertices
+     */
+    public int getModelVertexStart(int part, int model) {
+        return buf.getInt(modelPosition(part, model) + MODEL_VERTEX_INDEX) / VvdData.VERTEX_LEN;
+    }
+
+    private int meshPosition(int part, int model, int mesh) {
+        final int pos = modelPosition(part, model);
+        final int meshes = buf.getInt(pos + MESH_COUNT);
+        if (mesh < 0 || mesh >= meshes) {
+            throw new IndexOutOfBoundsException("Mesh " + mesh + " is out of range, model " + model + " has " + meshes + " meshes");
+        }
+        return pos + buf.getInt(pos + MESH_INDEX) + (mesh * MESH_LEN);
+    }
+
+    /**
+     * Get the material of a mesh
+     * @param part The body part number
+     * @param model The sub-model number
+     * @param mesh The mesh number
+     * @return A skin reference, which {@link ModelData#getSkinReference(int, int)}
+     * turns into a texture for a given skin
+     */
+    public int getMeshMaterial(int part, int model, int mesh) {
+        return buf.getInt(meshPosition(part, model, mesh));
+    }
+
+    /**
+     * Get the number of vertices in a mesh
+     * @param part The body part number
+     * @param model The sub-model number
+     * @param mesh The mesh number
+     * @param lod The level of detail
+     * @return The vertex count
+     */
+    public int getMeshVertexCount(int part, int model, int mesh, int lod) {
+        if (lod < 0 || lod >= VvdData.MAX_LODS) {
+            throw new IndexOutOfBoundsException("LOD " + lod + " is out of range");
+        }
+        final int pos = meshPosition(part, model, mesh);
+        if (lod == 0) {
+            return buf.getInt(pos + MESH_VERTEX_COUNT);
+        }
+        return buf.getInt(pos + MESH_LOD_VERTEX_COUNTS + (lod * 4));
+    }
+
+    /**
+     * Get where the vertices of a mesh start. A {@link VtxData.Cursor}
+     * gives the vertices of a mesh relative to this.
+     * @param part The body part number
+     * @param model The sub-model number
+     * @param mesh The mesh number
+     * @return An index into {@link VvdData#getVertexData()}, in units of
+     * whole vertices
+     */
+    public int getMeshVertexStart(int part, int model, int mesh) {
+        return getModelVertexStart(part, model) + buf.getInt(meshPosition(part, model, mesh) + MESH_VERTEX_OFFSET);
+    }
+}
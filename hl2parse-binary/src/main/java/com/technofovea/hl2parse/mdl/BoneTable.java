@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The skeleton of a model, from its mstudiobone_t array. Each bone's default
+ * pose is given relative to its parent.
+ *
+ * @author Darien Hager
+ */
+public class BoneTable extends ModelTable {
+
+    /**
+     * Length of a mstudiobone_t
+     */
+    static final int ENTRY_LEN = 216;
+    static final int PARENT = 4;
+    static final int POSITION = 32;
+    static final int QUATERNION = 44;
+    static final int ROTATION = 60;
+    static final int POSE_TO_BONE = 96;
+    static final int FLAGS = 160;
+    static final int PROC_TYPE = 164;
+    static final int PHYSICS_BONE = 172;
+    static final int SURFACE_PROP = 176;
+    static final int CONTENTS = 180;
+
+    BoneTable(ByteBuffer model, int offset, int count) throws ModelParseException {
+        super(model, ModelSection.BONE, offset, count, ENTRY_LEN, 0);
+    }
+
+    /**
+     * Get the parent of a bone
+     * @param bone The bone number
+     * @return The parent's bone number, or -1 for a root bone
+     */
+    public int getParent(int bone) {
+        return buf.getInt(position(bone) + PARENT);
+    }
+
+    /**
+     * Get the parent of every bone
+     * @see #getParent(int)
+     * @return A new array, indexed by bone number
+     */
+    public int[] getParents() {
+        return readIntColumn(PARENT);
+    }
+
+    /**
+     * Get the default position of every bone
+     * @return A new array of x, y and z for each bone in turn
+     */
+    public float[] getPositions() {
+        return readFloatColumn(POSITION, 3);
+    }
+
+    /**
+     * Get the default orientation of every bone
+     * @return A new array of quaternion x, y, z and w for each bone in turn
+     */
+    public float[] getQuaternions() {
+        return readFloatColumn(QUATERNION, 4);
+    }
+
+    /**
+     * Get the default orientation of every bone, as euler angles
+     * @return A new array of x, y and z angles (in radians) for each bone in turn
+     */
+    public float[] getRotations() {
+        return readFloatColumn(ROTATION, 3);
+    }
+
+    /**
+     * Get the transform from model space into the space of a bone, in its
+     * default pose.
+     * @param bone The bone number
+     * @param dest An array of at least 12 floats, which is filled with a
+     * 3x4 matrix in row order
+     * @return The destination array
+     */
+    public float[] getPoseToBone(int bone, float[] dest) {
+        return readFloats(position(bone) + POSE_TO_BONE, dest, 12);
+    }
+
+    public int getFlags(int bone) {
+        return buf.getInt(position(bone) + FLAGS);
+    }
+
+    /**
+     * Get the kind of procedural animation applied to a bone
+     * @param bone The bone number
+     * @return The procedural type, or zero if there is none
+     */
+    public int getProcType(int bone) {
+        return buf.getInt(position(bone) + PROC_TYPE);
+    }
+
+    /**
+     * Get the physics object which drives a bone when the model is ragdolled
+     * @param bone The bone number
+     * @return An index into the model's collision data
+     */
+    public int getPhysicsBone(int bone) {
+        return buf.getInt(position(bone) + PHYSICS_BONE);
+    }
+
+    /**
+     * Get the surface-property of a bone, which determines how it sounds and
+     * reacts when hit
+     * @param bone The bone number
+     * @return The surface-property name, possibly blank
+     */
+    public String getSurfaceProp(int bone) {
+        final int pos = position(bone);
+        final int rel = buf.getInt(pos + SURFACE_PROP);
+        if (rel == 0) {
+            return "";
+        }
+        return readString(pos + rel);
+    }
+
+    public int getContents(int bone) {
+        return buf.getInt(position(bone) + CONTENTS);
+    }
+}
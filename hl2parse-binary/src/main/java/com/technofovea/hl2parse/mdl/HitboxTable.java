@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The hitbox sets of a model, from its mstudiohitboxset_t array, along with
+ * the boxes within each set. Each box is attached to a bone, and is what
+ * shots and other traces are tested against.
+ *
+ * @author Darien Hager
+ */
+public class HitboxTable extends ModelTable {
+
+    /**
+     * Length of a mstudiohitboxset_t
+     */
+    static final int ENTRY_LEN = 12;
+    static final int BOX_COUNT = 4;
+    static final int BOX_INDEX = 8;
+    /**
+     * Length of a mstudiobbox_t
+     */
+    static final int BOX_LEN = 68;
+    static final int BOX_GROUP = 4;
+    static final int BOX_BOUNDS = 8;
+    static final int BOX_NAME = 32;
+
+    HitboxTable(ByteBuffer model, int offset, int count) throws ModelParseException {
+        super(model, ModelSection.HITBOXSET, offset, count, ENTRY_LEN, 0);
+    }
+
+    /**
+     * Get the number of hitboxes in a set
+     * @param set The set number
+     * @return The hitbox count
+     */
+    public int getHitboxCount(int set) {
+        return buf.getInt(position(set) + BOX_COUNT);
+    }
+
+    private int boxPosition(int set, int box) {
+        final int pos = position(set);
+        final int boxes = buf.getInt(pos + BOX_COUNT);
+        if (box < 0 || box >= boxes) {
+            throw new IndexOutOfBoundsException("Hitbox " + box + " is out of range, set " + set + " has " + boxes + " hitboxes");
+        }
+        return pos + buf.getInt(pos + BOX_INDEX) + (box * BOX_LEN);
+    }
+
+    /**
+     * Get the bone which a hitbox is attached to
+     * @param set The set number
+     * @param box The hitbox number, less than {@link #getHitboxCount(int)}
+     * @return An index into the {@link BoneTable}
+     */
+    public int getHitboxBone(int set, int box) {
+        return buf.getInt(boxPosition(set, box));
+    }
+
+    /**
+     * Get the hit-group of a hitbox, such as the head or an arm
+     * @param set The set number
+     * @param box The hitbox number
+     * @return The group number
+     */
+    public int getHitboxGroup(int set, int box) {
+        return buf.getInt(boxPosition(set, box) + BOX_GROUP);
+    }
+
+    /**
+     * Get the extent of a hitbox, relative to its bone
+     * @param set The set number
+     * @param box The hitbox number
+     * @param dest An array of at least 6 floats, which is filled with the
+     * minimum x, y and z followed by the maximum
+     * @return The destination array
+     */
+    public float[] getHitboxBounds(int set, int box, float[] dest) {
+        return readFloats(boxPosition(set, box) + BOX_BOUNDS, dest, 6);
+    }
+
+    /**
+     * Get the name of a hitbox
+     * @param set The set number
+     * @param box The hitbox number
+     * @return The name, usually blank
+     */
+    public String getHitboxName(int set, int box) {
+        final int pos = boxPosition(set, box);
+        final int rel = buf.getInt(pos + BOX_NAME);
+        if (rel == 0) {
+            return "";
+        }
+        return readString(pos + rel);
+    }
+}
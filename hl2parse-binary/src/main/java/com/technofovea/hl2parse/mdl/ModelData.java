@@ -14,28 +14,51 @@ package com.technofovea.hl2parse.mdl;
 
 import com.technofovea.hl2parse.Vector3f;
 import com.technofovea.hl2parse.ParseUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import static com.technofovea.hl2parse.mdl.ModelSection.*;
 
 /**
  * File format details are from Valve's studio.h header from 2005
+ *
+ * The fixed-size header is always read up-front. The sections it points to,
+ * such as the material lists and skin table, are either decoded immediately
+ * or, in lazy mode, the first time they are asked for.
+ *
  * @author Darien Hager
  */
 public class ModelData {
 
     private static final Logger logger = LoggerFactory.getLogger(ModelData.class);
-    Map<ModelSection, Integer> indexes = new HashMap<ModelSection, Integer>();
-    Map<ModelSection, Integer> contentCounts = new HashMap<ModelSection, Integer>();
+    /**
+     * The size of the studiohdr_t header at the start of every model
+     */
+    public static final int HEADER_LENGTH = 408;
+    /**
+     * Length of a mstudioflexdesc_t
+     */
+    static final int FLEXDESC_LEN = 4;
+    private static final int SECTION_COUNT = ModelSection.values().length;
+    /**
+     * Section offsets and counts from the header, indexed by
+     * {@link ModelSection#ordinal()}. Sections which the header gives no
+     * count for are left as zero.
+     */
+    final int[] indexes = new int[SECTION_COUNT];
+    final int[] contentCounts = new int[SECTION_COUNT];
     ByteBuffer bb;
     int id = -1;
     int version = -1;
@@ -43,10 +66,30 @@ public class ModelData {
     String modelName = null;
     int dataLength = 0;
     BitSet flags = null; // See ModelFlags
-    List<String> texturePaths = new ArrayList<String>();
-    List<String> textureNames = new ArrayList<String>();
-    Map<Integer, List<Integer>> skinTable = new HashMap<Integer, List<Integer>>();
-    List<String> includeModels = new ArrayList<String>();
+    /**
+     * True if only the header is available, see {@link #readHeader(java.io.File)}
+     */
+    final boolean headerOnly;
+    /**
+     * Lazily-loaded data, each of these remain null until the corresponding
+     * section has been decoded.
+     */
+    List<String> texturePaths;
+    List<String> textureNames;
+    /**
+     * Texture indexes for each skin family, one row of skin references per
+     * family
+     */
+    short[] skinTable;
+    List<String> includeModels;
+    private BoneTable bones;
+    private SequenceTable sequences;
+    private AnimationTable animations;
+    private AttachmentTable attachments;
+    private HitboxTable hitboxSets;
+    private ModelTable flexDescriptors;
+    private PoseParameterTable poseParameters;
+    private BodyPartTable bodyParts;
     private Vector3f eyeposition;
     private Vector3f illumposition;
     private Vector3f hull_min;
@@ -57,16 +100,75 @@ public class ModelData {
     private int contents;
     private int numskinfamilies;
 
+    /**
+     * Creates a new model, decoding all of its supported sections.
+     * @param bb The buffer containing model data, from the current position to the limit.
+     * @throws ModelParseException If the data could not be parsed
+     */
     public ModelData(ByteBuffer bb) throws ModelParseException {
+        this(bb, false);
+    }
+
+    /**
+     * Creates a new model.
+     *
+     * In lazy mode only the header is read up-front, and each section is
+     * decoded (once) the first time one of the getters requires it. Since
+     * the header holds the offset of every section, this makes it cheap to
+     * open a model when only some of its data is wanted.
+     *
+     * @param bb The buffer containing model data, from the current position to the limit.
+     * @param lazy If true, defer decoding of sections until they are requested.
+     * @throws ModelParseException If the data could not be parsed
+     */
+    public ModelData(ByteBuffer bb, boolean lazy) throws ModelParseException {
+        this(bb, lazy, false);
+    }
+
+    private ModelData(ByteBuffer bb, boolean lazy, boolean headerOnly) throws ModelParseException {
         this.bb = bb.slice();
         this.bb.order(ByteOrder.LITTLE_ENDIAN);
+        this.headerOnly = headerOnly;
         logger.debug("Parsing model data, {} remaining", this.bb.remaining());
         try {
             load();
-            fixPaths();
         } catch (BufferUnderflowException bue) {
             throw new ModelParseException(bue);
         }
+        if (!lazy) {
+            loadMaterialPaths();
+            loadMaterialNames();
+            loadSkinTable();
+            loadIncludeModels();
+            getBodyParts();
+        }
+    }
+
+    /**
+     * Reads only the header of a model file, which lies within its first
+     * page. The result can report the model's name, version, checksum,
+     * flags and section counts, but the getters for any other data will
+     * throw an exception.
+     * @param mdl The model file
+     * @return A header-only model
+     * @throws IOException If the file could not be read
+     * @throws ModelParseException If the header is truncated or invalid
+     */
+    public static ModelData readHeader(File mdl) throws IOException, ModelParseException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        RandomAccessFile raf = new RandomAccessFile(mdl, "r");
+        try {
+            FileChannel chan = raf.getChannel();
+            while (header.hasRemaining()) {
+                if (chan.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        header.flip();
+        return new ModelData(header, true, true);
     }
 
     private void load() {
@@ -106,7 +208,7 @@ public class ModelData {
         loadCountAndIndex(BODYPART);
         loadCountAndIndex(LOCALATTACHMENT);
 
-        int numlocalnodes = readInt();
+        loadCount(LOCALNODE);
         loadIndex(LOCALNODE);
         loadIndex(LOCALNODENAME);
 
@@ -148,49 +250,20 @@ public class ModelData {
         loadIndex(STUDIOHDR2);
         int[] unused4 = readIntArray(1);
 
-        assert (bb.position() == 408);
-
-
-
-        //TEMP
-        int[] idxList = new int[indexes.size()];
-        ArrayList<Integer> temp = new ArrayList<Integer>(indexes.values());
-        Collections.sort(temp);
-        for (int i = 0; i < temp.size(); i++) {
-            idxList[i] = temp.get(i).intValue();
-        }
-
-
-
-        /*
-         * Now that we've parsed the header and its various offsets and counts,
-         * go ahead and load the data we're interested in.
-         */
+        assert (bb.position() == HEADER_LENGTH);
 
-        if (indexes.get(STUDIOHDR2) > 0) {
+        if (getSectionOffset(STUDIOHDR2) > 0) {
             //TODO
         }
-
-        int pos = bb.position();
-
-        loadMaterialPaths();
-        bb.position(pos);
-
-        loadMaterialNames();
-        bb.position(pos);
-
-        loadSkinTable();
-        bb.position(pos);
-
-        loadIncludeModels();
-        bb.position(pos);
-
-        loadBodyParts();
-        bb.position(pos);
     }
 
-    private int readShort() {
-        return bb.getShort();
+    /**
+     * Checks that section data may be decoded, before any is read
+     */
+    private void checkSections() throws ModelParseException {
+        if (headerOnly) {
+            throw new ModelParseException("Only the header of model " + modelName + " was read");
+        }
     }
 
     private int readInt() {
@@ -203,11 +276,11 @@ public class ModelData {
     }
 
     private void loadIndex(ModelSection modelSection) {
-        indexes.put(modelSection, bb.getInt());
+        indexes[modelSection.ordinal()] = bb.getInt();
     }
 
     private void loadCount(ModelSection modelSection) {
-        contentCounts.put(modelSection, bb.getInt());
+        contentCounts[modelSection.ordinal()] = bb.getInt();
     }
 
     private byte[] readBytes(int count) {
@@ -240,6 +313,25 @@ public class ModelData {
         return fixPath(modelName);
     }
 
+    /**
+     * Get the offset of a section, as given in the header
+     * @param section The section
+     * @return The offset from the start of the model, or zero if the header
+     * does not give one
+     */
+    public int getSectionOffset(ModelSection section) {
+        return indexes[section.ordinal()];
+    }
+
+    /**
+     * Get the number of items in a section, as given in the header
+     * @param section The section
+     * @return The number of items, or zero if the header does not give one
+     */
+    public int getSectionCount(ModelSection section) {
+        return contentCounts[section.ordinal()];
+    }
+
     public boolean checkModelFlag(ModelFlag m) {
         return flags.get(m.getBitIndex());
     }
@@ -248,11 +340,29 @@ public class ModelData {
         return origPath.replace("\\", "/");
     }
 
-    public List<String> getTextureSearchPaths() {
+    /**
+     * Get the model's format version
+     * @return The version number
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the checksum which ties this model to its companion files
+     * @return The checksum
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    public List<String> getTextureSearchPaths() throws ModelParseException {
+        loadMaterialPaths();
         return Collections.unmodifiableList(texturePaths);
     }
 
-    public List<String> getTextureNames() {
+    public List<String> getTextureNames() throws ModelParseException {
+        loadMaterialNames();
         return Collections.unmodifiableList(textureNames);
     }
 
@@ -260,61 +370,304 @@ public class ModelData {
         return numskinfamilies;
     }
 
-    public List<String> getTexturesForSkin(int skinId) {
-        if (!skinTable.containsKey(skinId)) {
+    /**
+     * Get the number of texture slots which each skin fills in
+     * @return The number of skin references
+     */
+    public int getSkinReferenceCount() {
+        return getSectionCount(SKIN);
+    }
+
+    /**
+     * Get the whole skin-replacement table. Entry
+     * <code>(skin * getSkinReferenceCount()) + slot</code> is the index, into
+     * {@link #getTextureNames()}, of the texture which the skin uses in that
+     * slot.
+     * @return A read-only view of the table, which is not copied
+     * @throws ModelParseException If the table could not be decoded
+     */
+    public ShortBuffer getSkinTable() throws ModelParseException {
+        loadSkinTable();
+        return ShortBuffer.wrap(skinTable).asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the texture which a skin uses in a particular slot
+     * @see #getSkinTable()
+     * @param skinId The skin, zero-indexed
+     * @param slot The slot, less than {@link #getSkinReferenceCount()}
+     * @return An index into {@link #getTextureNames()}
+     * @throws ModelParseException If the table could not be decoded
+     * @throws IndexOutOfBoundsException If the skin or slot does not exist
+     */
+    public int getSkinReference(int skinId, int slot) throws ModelParseException {
+        loadSkinTable();
+        final int skinRefs = getSkinReferenceCount();
+        if (skinId < 0 || skinId >= numskinfamilies || slot < 0 || slot >= skinRefs) {
+            throw new IndexOutOfBoundsException("No slot " + slot + " in skin " + skinId);
+        }
+        return skinTable[(skinId * skinRefs) + slot];
+    }
+
+    public List<String> getTexturesForSkin(int skinId) throws ModelParseException {
+        loadSkinTable();
+        loadMaterialNames();
+        if (skinId < 0 || skinId >= numskinfamilies) {
             logger.error("Skin {} does not exist", skinId);
             return new ArrayList<String>();
         }
-        List<String> ret = new ArrayList<String>();
-        for (int texId : skinTable.get(skinId)) {
+        final int skinRefs = getSkinReferenceCount();
+        List<String> ret = new ArrayList<String>(skinRefs);
+        for (int i = skinId * skinRefs; i < (skinId + 1) * skinRefs; i++) {
             //TODO guard against bad texture ID
-            String matName = textureNames.get(texId);
+            String matName = textureNames.get(skinTable[i]);
             ret.add(matName);
         }
         return ret;
     }
 
-    public List<String> getIncludedModels() {
-        return Collections.unmodifiableList(includeModels);
+    /**
+     * Finds every texture used by any of a set of skins.
+     * @param skins The skins to examine. Those which do not exist are ignored.
+     * @return The indexes, into {@link #getTextureNames()}, of the textures used
+     * @throws ModelParseException If the table could not be decoded
+     */
+    public BitSet getTextureIndexesForSkins(BitSet skins) throws ModelParseException {
+        loadSkinTable();
+        final int skinRefs = getSkinReferenceCount();
+        BitSet ret = new BitSet();
+        for (int skin = skins.nextSetBit(0); skin >= 0 && skin < numskinfamilies; skin = skins.nextSetBit(skin + 1)) {
+            for (int i = skin * skinRefs; i < (skin + 1) * skinRefs; i++) {
+                if (skinTable[i] >= 0) {
+                    ret.set(skinTable[i]);
+                }
+            }
+        }
+        return ret;
     }
 
-    private void loadSkinTable() {
-        // inline func pSkinref
-        bb.position(indexes.get(SKIN));
-        logger.trace("Loading skin-family replacement tables at offset {}", bb.position());
-        for (int i = 0; i < numskinfamilies; i++) {
-            List<Integer> targets = new ArrayList<Integer>();
-            skinTable.put(i, targets);
-            for (int j = 0; j < this.contentCounts.get(SKIN); j++) {
-                int indexVal = readShort();
-                targets.add(indexVal);
+    /**
+     * Finds every texture used by any of a set of skins, such as those given
+     * for a prop by {@link com.technofovea.hl2parse.bsp.SourceMapAnalyzer#getStaticPropSkins()}.
+     * @param skins The skins to examine. Those which do not exist are logged
+     * and ignored.
+     * @return The names of the textures used, each listed once, in the order
+     * of {@link #getTextureNames()}
+     * @throws ModelParseException If the model could not be decoded
+     */
+    public List<String> getTexturesForSkins(Collection<Integer> skins) throws ModelParseException {
+        BitSet skinSet = new BitSet(numskinfamilies);
+        for (int skin : skins) {
+            if (skin < 0 || skin >= numskinfamilies) {
+                logger.error("Skin {} does not exist", skin);
+                continue;
             }
+            skinSet.set(skin);
         }
+        BitSet textures = getTextureIndexesForSkins(skinSet);
+        loadMaterialNames();
+        List<String> ret = new ArrayList<String>(textures.cardinality());
+        for (int tex = textures.nextSetBit(0); tex >= 0; tex = textures.nextSetBit(tex + 1)) {
+            if (tex >= textureNames.size()) {
+                logger.error("Skin table refers to texture {}, but there are only {}", tex, textureNames.size());
+                break;
+            }
+            ret.add(textureNames.get(tex));
+        }
+        return ret;
     }
 
-    private void loadMaterialPaths() {
-        // inline func pCdtexture
-        bb.position(indexes.get(CDTEXTURE));
-        logger.trace("Loading material paths at offset {} ", bb.position());
-        List<Integer> pathIndexes = new ArrayList<Integer>();
-        for (int i = 0; i < this.contentCounts.get(CDTEXTURE); i++) {
-            int stringStartIndex = readInt();
-            pathIndexes.add(stringStartIndex);
+    public List<String> getIncludedModels() throws ModelParseException {
+        loadIncludeModels();
+        return Collections.unmodifiableList(includeModels);
+    }
+
+    /**
+     * Get the model's bones. This and the other tables below are views onto
+     * the model data, created on first use, which decode entries only as
+     * they are read.
+     * @return The bone table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized BoneTable getBones() throws ModelParseException {
+        if (bones == null) {
+            checkSections();
+            bones = new BoneTable(bb, getSectionOffset(BONE), getSectionCount(BONE));
+        }
+        return bones;
+    }
+
+    /**
+     * Get the model's sequences
+     * @return The sequence table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized SequenceTable getSequences() throws ModelParseException {
+        if (sequences == null) {
+            checkSections();
+            sequences = new SequenceTable(bb, getSectionOffset(LOCALSEQ), getSectionCount(LOCALSEQ));
+        }
+        return sequences;
+    }
+
+    /**
+     * Get the model's animations, along with the blocks of any separate
+     * animation file
+     * @return The animation table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized AnimationTable getAnimations() throws ModelParseException {
+        if (animations == null) {
+            checkSections();
+            animations = new AnimationTable(bb, getSectionOffset(LOCALANIM), getSectionCount(LOCALANIM),
+                    getSectionOffset(ANIMBLOCK), getSectionCount(ANIMBLOCK), getSectionOffset(SZANIMBLOCKNAME));
+        }
+        return animations;
+    }
+
+    /**
+     * Get the model's attachment points
+     * @return The attachment table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized AttachmentTable getAttachments() throws ModelParseException {
+        if (attachments == null) {
+            checkSections();
+            attachments = new AttachmentTable(bb, getSectionOffset(LOCALATTACHMENT), getSectionCount(LOCALATTACHMENT));
+        }
+        return attachments;
+    }
+
+    /**
+     * Get the model's hitbox sets
+     * @return The hitbox table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized HitboxTable getHitboxSets() throws ModelParseException {
+        if (hitboxSets == null) {
+            checkSections();
+            hitboxSets = new HitboxTable(bb, getSectionOffset(HITBOXSET), getSectionCount(HITBOXSET));
+        }
+        return hitboxSets;
+    }
+
+    /**
+     * Get the model's flex descriptors, which name the facial expression
+     * controls it responds to. Each entry has only a name.
+     * @return The flex table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized ModelTable getFlexDescriptors() throws ModelParseException {
+        if (flexDescriptors == null) {
+            checkSections();
+            flexDescriptors = new ModelTable(bb, FLEXDESC, getSectionOffset(FLEXDESC), getSectionCount(FLEXDESC), FLEXDESC_LEN, 0);
         }
+        return flexDescriptors;
+    }
 
-        for (int i : pathIndexes) {
-            bb.position(i);
-            String path = readString(256);
-            texturePaths.add(path);
+    /**
+     * Get the model's pose parameters
+     * @return The pose parameter table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized PoseParameterTable getPoseParameters() throws ModelParseException {
+        if (poseParameters == null) {
+            checkSections();
+            poseParameters = new PoseParameterTable(bb, getSectionOffset(LOCALPOSEPARAM), getSectionCount(LOCALPOSEPARAM));
         }
+        return poseParameters;
+    }
 
+    /**
+     * Get the model's body parts, with their sub-models and meshes
+     * @return The body part table
+     * @throws ModelParseException If the table does not fit within the model
+     */
+    public synchronized BodyPartTable getBodyParts() throws ModelParseException {
+        if (bodyParts == null) {
+            checkSections();
+            bodyParts = new BodyPartTable(bb, getSectionOffset(BODYPART), getSectionCount(BODYPART));
+        }
+        return bodyParts;
     }
 
-    private void loadMaterialNames() {
+    private synchronized void loadSkinTable() throws ModelParseException {
+        if (skinTable != null) {
+            return;
+        }
+        checkSections();
+        final int skinRefs = getSectionCount(SKIN);
+        final int offset = getSectionOffset(SKIN);
+        // Check before allocating, since the counts come straight from the file
+        if (numskinfamilies < 0 || skinRefs < 0
+                || (long) numskinfamilies * skinRefs * 2 > bb.limit() - (long) offset) {
+            throw new ModelParseException("Skin table of " + numskinfamilies + "x" + skinRefs + " at offset " + offset + " does not fit in the model");
+        }
+        short[] table = new short[numskinfamilies * skinRefs];
+        try {
+            // inline func pSkinref
+            bb.position(offset);
+            logger.trace("Loading skin-family replacement tables at offset {}", offset);
+            bb.asShortBuffer().get(table);
+        } catch (BufferUnderflowException ex) {
+            throw new ModelParseException(ex);
+        } catch (IllegalArgumentException ex) {
+            // Bad offset
+            throw new ModelParseException(ex);
+        }
+        skinTable = table;
+    }
+
+    private synchronized void loadMaterialPaths() throws ModelParseException {
+        if (texturePaths != null) {
+            return;
+        }
+        checkSections();
+        List<String> paths = new ArrayList<String>();
+        try {
+            // inline func pCdtexture
+            bb.position(getSectionOffset(CDTEXTURE));
+            logger.trace("Loading material paths at offset {} ", bb.position());
+            List<Integer> pathIndexes = new ArrayList<Integer>();
+            for (int i = 0; i < getSectionCount(CDTEXTURE); i++) {
+                int stringStartIndex = readInt();
+                pathIndexes.add(stringStartIndex);
+            }
+
+            for (int i : pathIndexes) {
+                bb.position(i);
+                String path = readString(256);
+                paths.add(fixMaterialPath(path));
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new ModelParseException(ex);
+        } catch (IllegalArgumentException ex) {
+            throw new ModelParseException(ex);
+        }
+        texturePaths = paths;
+    }
+
+    private synchronized void loadMaterialNames() throws ModelParseException {
+        if (textureNames != null) {
+            return;
+        }
+        checkSections();
+        List<String> names = new ArrayList<String>();
+        try {
+            readMaterialNames(names);
+        } catch (BufferUnderflowException ex) {
+            throw new ModelParseException(ex);
+        } catch (IllegalArgumentException ex) {
+            throw new ModelParseException(ex);
+        }
+        textureNames = names;
+    }
+
+    private void readMaterialNames(List<String> names) {
         // struct mstudiotexture_t
-        bb.position(indexes.get(TEXTURE));
+        bb.position(getSectionOffset(TEXTURE));
         logger.trace("Loading material names at offset {}", bb.position());
-        for (int i = 0; i < this.contentCounts.get(TEXTURE); i++) {
+        for (int i = 0; i < getSectionCount(TEXTURE); i++) {
 
             int blockStartPos = bb.position();
 
@@ -324,7 +677,7 @@ public class ModelData {
             String name = readString(128);
             bb.position(lastPos);
 
-            textureNames.add(name);
+            names.add(fixMaterialName(name));
 
             int flags = readInt();
             int used = readInt();
@@ -338,11 +691,27 @@ public class ModelData {
         }
     }
 
-    private void loadIncludeModels() {
+    private synchronized void loadIncludeModels() throws ModelParseException {
+        if (includeModels != null) {
+            return;
+        }
+        checkSections();
+        List<String> models = new ArrayList<String>();
+        try {
+            readIncludeModels(models);
+        } catch (BufferUnderflowException ex) {
+            throw new ModelParseException(ex);
+        } catch (IllegalArgumentException ex) {
+            throw new ModelParseException(ex);
+        }
+        includeModels = models;
+    }
+
+    private void readIncludeModels(List<String> models) {
         // struct mstudiotexture_t
-        bb.position(indexes.get(INCLUDEMODEL));
-        logger.trace("Loading {} include models at offset {}", contentCounts.get(INCLUDEMODEL), bb.position());
-        for (int i = 0; i < this.contentCounts.get(INCLUDEMODEL); i++) {
+        bb.position(getSectionOffset(INCLUDEMODEL));
+        logger.trace("Loading {} include models at offset {}", getSectionCount(INCLUDEMODEL), bb.position());
+        for (int i = 0; i < getSectionCount(INCLUDEMODEL); i++) {
             int blockStartPos = bb.position();
             int descNameOffset = readInt();
             int fileNameOffset = readInt();
@@ -354,7 +723,7 @@ public class ModelData {
             bb.position(blockStartPos + fileNameOffset);
             String filename = readString(128);
 
-            includeModels.add(filename);
+            models.add(filename);
             bb.position(endPos);
 
 
@@ -363,63 +732,27 @@ public class ModelData {
 
     }
 
-    //mstudiobodyparts_t
-    private void loadBodyParts() {
-        final int startPos = indexes.get(BODYPART);
-        final int count = contentCounts.get(BODYPART);
-        logger.trace("Loading {} bodyparts at offset {}", count, startPos);
-
-        bb.position(startPos);
-        for (int i = 0; i < count; i++) {
-            final int structStartPos = bb.position();
-
-            final int name_offset = readInt();
-            final int numModels = readInt();
-            final int base = readInt();
-            final int model_offset = readInt();
-
-
-
-            int prev = bb.position();
-            bb.position(structStartPos + name_offset);
-            final String bodypartName = readString(256);
-
-            bb.position(structStartPos + model_offset);
-            //TODO model
-            bb.position(prev);
-
-
+    private static String fixMaterialPath(String p) {
+        // Correct slash types
+        String fixed = p.replace("\\", "/");
+        // Strip leading slashes
+        fixed = fixed.replaceFirst("^/+", "");
+        // Prepend materials
+        fixed = "materials/" + fixed;
+        // Ensure a trailing slash is present
+        if (!fixed.endsWith("/")) {
+            fixed += "/";
         }
-
+        return fixed;
     }
 
-    private void fixPaths() {
-        List<String> newPaths = new ArrayList<String>();
-        for (String p : texturePaths) {
-            // Correct slash types
-            String fixed = p.replace("\\", "/");
-            // Strip leading slashes
-            fixed = fixed.replaceFirst("^/+", "");
-            // Prepend materials
-            fixed = "materials/" + fixed;
-            // Ensure a trailing slash is present
-            if (!fixed.endsWith("/")) {
-                fixed += "/";
-            }
-            newPaths.add(fixed);
-        }
-        texturePaths = newPaths;
-
-        List<String> newNames = new ArrayList<String>();
-        for (String n : textureNames) {
-            // Correct slash types
-            String fixed = n.replace("\\", "/");
-            // Remove leading slashes
-            fixed = fixed.replaceAll("^/+", "");
-            // Suffix
-            fixed += ".vmt";
-            newNames.add(fixed);
-        }
-        textureNames = newNames;
+    private static String fixMaterialName(String n) {
+        // Correct slash types
+        String fixed = n.replace("\\", "/");
+        // Remove leading slashes
+        fixed = fixed.replaceAll("^/+", "");
+        // Suffix
+        fixed += ".vmt";
+        return fixed;
     }
 }
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only view of one of the fixed-size structure arrays within a model,
+ * such as its bones or sequences. Nothing is copied when a table is
+ * created: every getter reads straight from the model's buffer, so a table
+ * costs the same whether or not its entries are ever looked at. Entries are
+ * numbered from zero, in file order.
+ *
+ * The table itself is checked to lie within the model, but offsets stored
+ * inside its entries (such as those of names) are only followed on demand.
+ * A corrupt one results in an {@link IndexOutOfBoundsException}.
+ *
+ * Tables never modify the buffer's position, and may be read by several
+ * threads at once.
+ *
+ * @see ModelData
+ * @author Darien Hager
+ */
+public class ModelTable {
+
+    protected final ByteBuffer buf;
+    protected final int offset;
+    protected final int count;
+    protected final int stride;
+    /**
+     * Where in each entry the relative offset of its name is stored
+     */
+    private final int nameField;
+
+    /**
+     * Creates a new view.
+     * @param model The whole model, whose position and limit are not altered
+     * @param section The section, for error messages
+     * @param offset The offset of the first entry from the start of the model
+     * @param count The number of entries
+     * @param stride The length of each entry
+     * @param nameField The position within each entry of the name's offset,
+     * which is relative to the entry
+     * @throws ModelParseException If the entries do not fit within the model
+     */
+    ModelTable(ByteBuffer model, ModelSection section, int offset, int count, int stride, int nameField) throws ModelParseException {
+        if (count < 0 || (count > 0 && offset < 0) || (long) offset + ((long) count * stride) > model.limit()) {
+            throw new ModelParseException(section + " section of " + count + " entries at offset " + offset + " does not fit in the model");
+        }
+        this.buf = model.duplicate();
+        this.buf.order(ByteOrder.LITTLE_ENDIAN);
+        this.offset = offset;
+        this.count = count;
+        this.stride = stride;
+        this.nameField = nameField;
+    }
+
+    /**
+     * Get the number of entries
+     * @return The entry count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the name of an entry
+     * @param index The entry number
+     * @return The name
+     */
+    public String getName(int index) {
+        final int pos = position(index);
+        return readString(pos + buf.getInt(pos + nameField));
+    }
+
+    /**
+     * Get the names of all entries
+     * @return An unmodifiable list of names, indexed by entry number
+     */
+    public List<String> getNames() {
+        List<String> ret = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(getName(i));
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Finds an entry by name, ignoring case.
+     * @param name The name to look for
+     * @return The number of the first matching entry, or -1 if there are none
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < count; i++) {
+            if (getName(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the position of an entry within the model.
+     * @param index The entry number
+     * @return The offset of the start of the entry
+     */
+    protected int position(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Entry " + index + " is out of range, there are " + count + " entries");
+        }
+        return offset + (index * stride);
+    }
+
+    /**
+     * Reads a field from every entry into one array.
+     * @param field The position of the field within each entry
+     * @param width The number of consecutive floats in the field
+     * @return An array of <code>size() * width</code> values
+     */
+    protected float[] readFloatColumn(int field, int width) {
+        float[] ret = new float[count * width];
+        for (int i = 0; i < count; i++) {
+            final int pos = offset + (i * stride) + field;
+            for (int j = 0; j < width; j++) {
+                ret[(i * width) + j] = buf.getFloat(pos + (j * 4));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads an integer field from every entry into one array.
+     * @param field The position of the field within each entry
+     * @return An array of <code>size()</code> values
+     */
+    protected int[] readIntColumn(int field) {
+        int[] ret = new int[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = buf.getInt(offset + (i * stride) + field);
+        }
+        return ret;
+    }
+
+    /**
+     * Copies consecutive floats out of the model.
+     * @param pos The position of the first value
+     * @param dest The array to fill, from its start
+     * @param len The number of values to copy
+     * @return The destination array
+     */
+    protected float[] readFloats(int pos, float[] dest, int len) {
+        if (dest.length < len) {
+            throw new IllegalArgumentException("Destination has room for " + dest.length + " values, but " + len + " are needed");
+        }
+        for (int i = 0; i < len; i++) {
+            dest[i] = buf.getFloat(pos + (i * 4));
+        }
+        return dest;
+    }
+
+    /**
+     * Reads a null-terminated ASCII string.
+     * @param pos The position of the first character
+     * @return The string, without its terminator
+     */
+    protected String readString(int pos) {
+        final int limit = buf.limit();
+        int end = pos;
+        while (end < limit && buf.get(end) != 0) {
+            end++;
+        }
+        char[] chars = new char[end - pos];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buf.get(pos + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
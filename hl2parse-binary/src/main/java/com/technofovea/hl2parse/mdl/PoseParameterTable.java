@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The pose parameters of a model, from its mstudioposeparamdesc_t array. A
+ * pose parameter is a value set by game code, such as the direction to aim
+ * in, which sequences use to choose between their blended animations.
+ *
+ * @author Darien Hager
+ */
+public class PoseParameterTable extends ModelTable {
+
+    /**
+     * Length of a mstudioposeparamdesc_t
+     */
+    static final int ENTRY_LEN = 20;
+    static final int FLAGS = 4;
+    static final int START = 8;
+    static final int END = 12;
+    static final int LOOP = 16;
+
+    PoseParameterTable(ByteBuffer model, int offset, int count) throws ModelParseException {
+        super(model, ModelSection.LOCALPOSEPARAM, offset, count, ENTRY_LEN, 0);
+    }
+
+    public int getFlags(int param) {
+        return buf.getInt(position(param) + FLAGS);
+    }
+
+    /**
+     * Get the lowest value of a pose parameter
+     * @param param The parameter number
+     * @return The value at the start of the range
+     */
+    public float getStart(int param) {
+        return buf.getFloat(position(param) + START);
+    }
+
+    /**
+     * Get the highest value of a pose parameter
+     * @param param The parameter number
+     * @return The value at the end of the range
+     */
+    public float getEnd(int param) {
+        return buf.getFloat(position(param) + END);
+    }
+
+    /**
+     * Get the range over which a pose parameter wraps around, such as 360
+     * for an angle
+     * @param param The parameter number
+     * @return The looping range, or zero if it does not loop
+     */
+    public float getLoop(int param) {
+        return buf.getFloat(position(param) + LOOP);
+    }
+}
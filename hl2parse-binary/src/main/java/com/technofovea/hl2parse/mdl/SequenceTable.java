@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The sequences of a model, from its mstudioseqdesc_t array. A sequence is
+ * what game code plays, and blends between one or more animations from the
+ * {@link AnimationTable}. The name of each sequence is its label.
+ *
+ * @author Darien Hager
+ */
+public class SequenceTable extends ModelTable {
+
+    /**
+     * Length of a mstudioseqdesc_t
+     */
+    static final int ENTRY_LEN = 212;
+    static final int LABEL = 4;
+    static final int ACTIVITY_NAME = 8;
+    static final int FLAGS = 12;
+    static final int ACTIVITY = 16;
+    static final int ACTIVITY_WEIGHT = 20;
+    static final int EVENT_COUNT = 24;
+    static final int EVENT_INDEX = 28;
+    static final int BOUNDS = 32;
+    static final int BLEND_COUNT = 56;
+    static final int ANIM_INDEX = 60;
+    static final int GROUP_SIZE = 68;
+    static final int FADE_IN = 104;
+    static final int FADE_OUT = 108;
+    /**
+     * Length of a mstudioevent_t
+     */
+    static final int EVENT_LEN = 80;
+    static final int EVENT_ID = 4;
+    static final int EVENT_TYPE = 8;
+    static final int EVENT_OPTIONS = 12;
+    static final int EVENT_OPTIONS_LEN = 64;
+    static final int EVENT_NAME = 76;
+
+    SequenceTable(ByteBuffer model, int offset, int count) throws ModelParseException {
+        super(model, ModelSection.LOCALSEQ, offset, count, ENTRY_LEN, LABEL);
+    }
+
+    /**
+     * Get the name of the activity which a sequence performs, such as
+     * "ACT_IDLE". Game code often picks sequences by activity rather than
+     * by name.
+     * @param seq The sequence number
+     * @return The activity name, possibly blank
+     */
+    public String getActivityName(int seq) {
+        final int pos = position(seq);
+        return readString(pos + buf.getInt(pos + ACTIVITY_NAME));
+    }
+
+    /**
+     * Get the activity number of a sequence. This is only assigned when the
+     * model is loaded by the engine, so in a file it is normally zero.
+     * @param seq The sequence number
+     * @return The activity number
+     */
+    public int getActivity(int seq) {
+        return buf.getInt(position(seq) + ACTIVITY);
+    }
+
+    /**
+     * Get how likely a sequence is to be chosen among others with the same activity
+     * @param seq The sequence number
+     * @return The relative weight
+     */
+    public int getActivityWeight(int seq) {
+        return buf.getInt(position(seq) + ACTIVITY_WEIGHT);
+    }
+
+    public int getFlags(int seq) {
+        return buf.getInt(position(seq) + FLAGS);
+    }
+
+    /**
+     * Get the bounding box of a sequence
+     * @param seq The sequence number
+     * @param dest An array of at least 6 floats, which is filled with the
+     * minimum x, y and z followed by the maximum
+     * @return The destination array
+     */
+    public float[] getBounds(int seq, float[] dest) {
+        return readFloats(position(seq) + BOUNDS, dest, 6);
+    }
+
+    /**
+     * Get the time taken to blend into a sequence
+     * @param seq The sequence number
+     * @return A time in seconds
+     */
+    public float getFadeInTime(int seq) {
+        return buf.getFloat(position(seq) + FADE_IN);
+    }
+
+    /**
+     * Get the time taken to blend out of a sequence
+     * @param seq The sequence number
+     * @return A time in seconds
+     */
+    public float getFadeOutTime(int seq) {
+        return buf.getFloat(position(seq) + FADE_OUT);
+    }
+
+    public int getBlendCount(int seq) {
+        return buf.getInt(position(seq) + BLEND_COUNT);
+    }
+
+    /**
+     * Get the animations which a sequence blends between. These form a grid
+     * of {@link #getBlendWidth(int)} columns, one row after another.
+     * @param seq The sequence number
+     * @return A new array of indexes into the {@link AnimationTable}
+     */
+    public int[] getAnimations(int seq) {
+        final int pos = position(seq);
+        final int width = buf.getInt(pos + GROUP_SIZE);
+        final int height = buf.getInt(pos + GROUP_SIZE + 4);
+        final int start = pos + buf.getInt(pos + ANIM_INDEX);
+        if (width < 0 || height < 0 || (long) width * height * 2 > buf.limit() - (long) start) {
+            throw new IndexOutOfBoundsException("Sequence " + seq + " has a blend grid of " + width + "x" + height + " at offset " + start);
+        }
+        int[] ret = new int[width * height];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = buf.getShort(start + (i * 2));
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of columns in a sequence's blend grid
+     * @see #getAnimations(int)
+     * @param seq The sequence number
+     * @return The grid width
+     */
+    public int getBlendWidth(int seq) {
+        return buf.getInt(position(seq) + GROUP_SIZE);
+    }
+
+    /**
+     * Get the number of animation events, such as footsteps or sounds, which
+     * a sequence triggers
+     * @param seq The sequence number
+     * @return The event count
+     */
+    public int getEventCount(int seq) {
+        return buf.getInt(position(seq) + EVENT_COUNT);
+    }
+
+    private int eventPosition(int seq, int event) {
+        final int pos = position(seq);
+        final int events = buf.getInt(pos + EVENT_COUNT);
+        if (event < 0 || event >= events) {
+            throw new IndexOutOfBoundsException("Event " + event + " is out of range, sequence " + seq + " has " + events + " events");
+        }
+        return pos + buf.getInt(pos + EVENT_INDEX) + (event * EVENT_LEN);
+    }
+
+    /**
+     * Get the point in a sequence at which an event fires
+     * @param seq The sequence number
+     * @param event The event number, less than {@link #getEventCount(int)}
+     * @return The fraction of the way through the sequence, from 0 to 1
+     */
+    public float getEventCycle(int seq, int event) {
+        return buf.getFloat(eventPosition(seq, event));
+    }
+
+    /**
+     * Get the numeric ID of an event. Newer models identify events by
+     * {@link #getEventName(int, int)} instead, and give zero here.
+     * @param seq The sequence number
+     * @param event The event number
+     * @return The event ID
+     */
+    public int getEventId(int seq, int event) {
+        return buf.getInt(eventPosition(seq, event) + EVENT_ID);
+    }
+
+    public int getEventType(int seq, int event) {
+        return buf.getInt(eventPosition(seq, event) + EVENT_TYPE);
+    }
+
+    /**
+     * Get the options given to an event, such as the name of a sound
+     * @param seq The sequence number
+     * @param event The event number
+     * @return The options, possibly blank
+     */
+    public String getEventOptions(int seq, int event) {
+        final int pos = eventPosition(seq, event) + EVENT_OPTIONS;
+        String options = readString(pos);
+        if (options.length() > EVENT_OPTIONS_LEN) {
+            // Not terminated within its fixed-size field
+            options = options.substring(0, EVENT_OPTIONS_LEN);
+        }
+        return options;
+    }
+
+    /**
+     * Get the name of an event, such as "AE_CL_PLAYSOUND"
+     * @param seq The sequence number
+     * @param event The event number
+     * @return The event name, or a blank string if it only has a numeric ID
+     */
+    public String getEventName(int seq, int event) {
+        final int pos = eventPosition(seq, event);
+        final int rel = buf.getInt(pos + EVENT_NAME);
+        if (rel == 0) {
+            return "";
+        }
+        return readString(pos + rel);
+    }
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interprets a VTX file, such as <code>foo.dx90.vtx</code>, which holds the
+ * triangles of a model's meshes at each level of detail.
+ *
+ * The file mirrors the body parts and sub-models of the MDL. Each of those
+ * has one or more levels of detail, which hold meshes, which hold strip
+ * groups. A strip group has its own vertex list, and triangles given as
+ * indexes into that list. Meshes are inspected through a reusable
+ * {@link Cursor}, and index lists are views directly onto the given buffer,
+ * which may be memory-mapped.
+ *
+ * File format details are from Valve's optimize.h header from 2005
+ * @see VvdData
+ * @author Darien Hager
+ */
+public class VtxData {
+
+    private static final Logger logger = LoggerFactory.getLogger(VtxData.class);
+    /**
+     * The only version of the format in use
+     */
+    public static final int VERSION = 7;
+    static final int HEADER_LEN = 36;
+    static final int BODYPART_LEN = 8;
+    static final int MODEL_LEN = 8;
+    static final int LOD_LEN = 12;
+    static final int MESH_LEN = 9;
+    static final int STRIPGROUP_LEN = 25;
+    static final int STRIP_LEN = 27;
+    static final int VERTEX_LEN = 9;
+    /**
+     * Strip flag for a list of separate triangles
+     */
+    public static final int STRIP_IS_TRILIST = 0x01;
+    /**
+     * Strip flag for a triangle strip
+     */
+    public static final int STRIP_IS_TRISTRIP = 0x02;
+    ByteBuffer bb;
+    int version = -1;
+    int vertCacheSize;
+    int maxBonesPerStrip;
+    int maxBonesPerTri;
+    int maxBonesPerVert;
+    int checksum = 0;
+    int lodCount = 0;
+    int bodyPartCount = 0;
+    int bodyPartOffset = 0;
+
+    /**
+     * Reads the header of a VTX file.
+     * @param bb The buffer containing strip data, from the current position to the limit.
+     * @throws ModelParseException If the data could not be parsed
+     */
+    public VtxData(ByteBuffer bb) throws ModelParseException {
+        this.bb = bb.slice();
+        this.bb.order(ByteOrder.LITTLE_ENDIAN);
+        logger.debug("Parsing strip data, {} remaining", this.bb.remaining());
+        try {
+            load();
+        } catch (BufferUnderflowException bue) {
+            throw new ModelParseException(bue);
+        }
+    }
+
+    /**
+     * Reads a VTX file, checking that it belongs to the given model.
+     * @param bb The buffer containing strip data, from the current position to the limit.
+     * @param model The model which the strips should belong to
+     * @throws ModelParseException If the data could not be parsed, or was
+     * made for a different version of the model
+     */
+    public VtxData(ByteBuffer bb, ModelData model) throws ModelParseException {
+        this(bb);
+        if (!matches(model)) {
+            throw new ModelParseException("Strip checksum " + checksum + " does not match model checksum " + model.getChecksum());
+        }
+    }
+
+    private void load() throws ModelParseException {
+        version = bb.getInt();
+        if (version != VERSION) {
+            throw new ModelParseException("Unsupported VTX version " + version);
+        }
+        vertCacheSize = bb.getInt();
+        maxBonesPerStrip = bb.getShort() & 0xFFFF;
+        maxBonesPerTri = bb.getShort() & 0xFFFF;
+        maxBonesPerVert = bb.getInt();
+        checksum = bb.getInt();
+        lodCount = bb.getInt();
+        bb.getInt(); // Material replacement lists, unused
+        bodyPartCount = bb.getInt();
+        bodyPartOffset = bb.getInt();
+        assert (bb.position() == HEADER_LEN);
+        logger.debug("{} body parts, {} LODs", bodyPartCount, lodCount);
+
+        if (bodyPartCount < 0 || (bodyPartCount > 0 && bodyPartOffset < 0)
+                || (long) bodyPartOffset + ((long) bodyPartCount * BODYPART_LEN) > bb.limit()) {
+            throw new ModelParseException(bodyPartCount + " body parts at offset " + bodyPartOffset + " do not fit in the file");
+        }
+    }
+
+    /**
+     * Checks whether this strip data was compiled with the given model
+     * @param model The model
+     * @return True if the checksums match
+     */
+    public boolean matches(ModelData model) {
+        return model.getChecksum() == checksum;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Get the number of levels of detail which each sub-model has
+     * @return The LOD count
+     */
+    public int getLodCount() {
+        return lodCount;
+    }
+
+    public int getBodyPartCount() {
+        return bodyPartCount;
+    }
+
+    /**
+     * Follows a count and relative offset pair to one of the entries it refers to.
+     * @param pos The position of the structure holding the pair
+     * @param field The position of the count within the structure, the offset follows it
+     * @param index The entry wanted
+     * @param len The length of each entry
+     * @return The position of the entry
+     */
+    private int child(int pos, int field, int index, int len) {
+        final int count = bb.getInt(pos + field);
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of range, there are " + count);
+        }
+        return pos + bb.getInt(pos + field + 4) + (index * len);
+    }
+
+    private int bodyPartPosition(int bodyPart) {
+        if (bodyPart < 0 || bodyPart >= bodyPartCount) {
+            throw new IndexOutOfBoundsException("Body part " + bodyPart + " is out of range, there are " + bodyPartCount);
+        }
+        return bodyPartOffset + (bodyPart * BODYPART_LEN);
+    }
+
+    /**
+     * Get the number of sub-models in a body part, of which one is shown at a time
+     * @param bodyPart The body part number
+     * @return The model count
+     */
+    public int getModelCount(int bodyPart) {
+        return bb.getInt(bodyPartPosition(bodyPart));
+    }
+
+    /**
+     * Get the number of meshes in a level of detail of a sub-model.
+     * @param bodyPart The body part number
+     * @param model The sub-model number
+     * @param lod The level of detail
+     * @return The mesh count
+     */
+    public int getMeshCount(int bodyPart, int model, int lod) {
+        return bb.getInt(lodPosition(bodyPart, model, lod));
+    }
+
+    /**
+     * Get the distance at which a level of detail is switched to
+     * @param bodyPart The body part number
+     * @param model The sub-model number
+     * @param lod The level of detail
+     * @return The switch point
+     */
+    public float getSwitchPoint(int bodyPart, int model, int lod) {
+        return bb.getFloat(lodPosition(bodyPart, model, lod) + 8);
+    }
+
+    private int lodPosition(int bodyPart, int model, int lod) {
+        final int modelPos = child(bodyPartPosition(bodyPart), 0, model, MODEL_LEN);
+        return child(modelPos, 0, lod, LOD_LEN);
+    }
+
+    /**
+     * Counts the triangles at a level of detail, across all body parts and
+     * sub-models.
+     * @param lod The level of detail
+     * @return The triangle count
+     */
+    public int getTriangleCount(int lod) {
+        int total = 0;
+        Cursor mesh = cursor();
+        for (int bp = 0; bp < bodyPartCount; bp++) {
+            final int models = getModelCount(bp);
+            for (int m = 0; m < models; m++) {
+                final int meshes = getMeshCount(bp, m, lod);
+                for (int i = 0; i < meshes; i++) {
+                    total += mesh.moveTo(bp, m, lod, i).getTriangleCount();
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Creates a new cursor, which must be positioned on a mesh before use.
+     * @return A new cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A movable view onto a single mesh. One cursor may be re-positioned over
+     * every mesh without allocating anything. Meshes are numbered as in the
+     * MDL, see {@link BodyPartTable#getMeshMaterial(int, int, int)}.
+     */
+    public class Cursor {
+
+        private int meshPos = -1;
+
+        Cursor() {
+        }
+
+        /**
+         * Positions this cursor on a given mesh
+         * @param bodyPart The body part number
+         * @param model The sub-model number
+         * @param lod The level of detail
+         * @param mesh The mesh number
+         * @return This cursor, for chaining
+         */
+        public Cursor moveTo(int bodyPart, int model, int lod, int mesh) {
+            meshPos = child(lodPosition(bodyPart, model, lod), 0, mesh, MESH_LEN);
+            return this;
+        }
+
+        private int meshPosition() {
+            if (meshPos < 0) {
+                throw new IllegalStateException("Cursor has not been positioned on a mesh");
+            }
+            return meshPos;
+        }
+
+        private int groupPosition(int group) {
+            return child(meshPosition(), 0, group, STRIPGROUP_LEN);
+        }
+
+        public int getFlags() {
+            return bb.get(meshPosition() + 8) & 0xFF;
+        }
+
+        public int getStripGroupCount() {
+            return bb.getInt(meshPosition());
+        }
+
+        /**
+         * Get the number of vertices in a strip group
+         * @param group The strip group number
+         * @return The vertex count
+         */
+        public int getVertexCount(int group) {
+            return bb.getInt(groupPosition(group));
+        }
+
+        /**
+         * Get the vertices of a strip group, as positions within the mesh's
+         * range of vertices in the VVD file
+         * @param group The strip group number
+         * @return A new array, indexed by the values in {@link #getIndices(int)}
+         */
+        public int[] getVertexIds(int group) {
+            final int pos = groupPosition(group);
+            final int count = bb.getInt(pos);
+            final int start = pos + bb.getInt(pos + 4);
+            if (count < 0 || start < 0 || (long) start + ((long) count * VERTEX_LEN) > bb.limit()) {
+                throw new IndexOutOfBoundsException(count + " vertices at offset " + start + " do not fit in the file");
+            }
+            int[] ret = new int[count];
+            for (int i = 0; i < count; i++) {
+                // origMeshVertID follows the bone weight indexes and count
+                ret[i] = bb.getShort(start + (i * VERTEX_LEN) + 4) & 0xFFFF;
+            }
+            return ret;
+        }
+
+        /**
+         * Get the triangle indices of a strip group
+         * @param group The strip group number
+         * @return A read-only view of the indices, which refer to the strip
+         * group's vertices. They are unsigned, see {@link #getVertexIds(int)}.
+         */
+        public ShortBuffer getIndices(int group) {
+            final int pos = groupPosition(group);
+            final int count = bb.getInt(pos + 8);
+            final int start = pos + bb.getInt(pos + 12);
+            if (count < 0 || start < 0 || (long) start + ((long) count * 2) > bb.limit()) {
+                throw new IndexOutOfBoundsException(count + " indices at offset " + start + " do not fit in the file");
+            }
+            ByteBuffer view = bb.duplicate();
+            view.limit(start + (count * 2));
+            view.position(start);
+            return view.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().asReadOnlyBuffer();
+        }
+
+        /**
+         * Counts the triangles in this mesh, across all of its strip groups.
+         * @return The triangle count
+         */
+        public int getTriangleCount() {
+            final int groups = getStripGroupCount();
+            int total = 0;
+            for (int g = 0; g < groups; g++) {
+                final int groupPos = groupPosition(g);
+                final int strips = bb.getInt(groupPos + 16);
+                for (int s = 0; s < strips; s++) {
+                    final int stripPos = child(groupPos, 16, s, STRIP_LEN);
+                    final int indices = bb.getInt(stripPos);
+                    final int flags = bb.get(stripPos + 18) & 0xFF;
+                    if ((flags & STRIP_IS_TRISTRIP) != 0) {
+                        total += Math.max(0, indices - 2);
+                    } else {
+                        total += indices / 3;
+                    }
+                }
+            }
+            return total;
+        }
+    }
+}
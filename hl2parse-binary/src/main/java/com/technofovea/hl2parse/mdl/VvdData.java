@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.mdl;
+
+import com.technofovea.hl2parse.ParseUtil;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interprets a VVD file, which holds the vertices of a model's meshes.
+ *
+ * Vertex data is not copied: {@link #getVertexData()} and
+ * {@link #getTangentData()} are views directly onto the given buffer, which
+ * may be memory-mapped. Each vertex occupies {@link #VERTEX_FLOATS} floats
+ * of the view, with its position starting at {@link #POSITION}, its normal
+ * at {@link #NORMAL} and its texture co-ordinates at {@link #TEXCOORD}.
+ *
+ * File format details are from Valve's studio.h header from 2005
+ * @see VtxData
+ * @author Darien Hager
+ */
+public class VvdData {
+
+    private static final Logger logger = LoggerFactory.getLogger(VvdData.class);
+    /**
+     * The identifier at the start of every VVD file, "IDSV"
+     */
+    public static final int ID = ('V' << 24) | ('S' << 16) | ('D' << 8) | 'I';
+    public static final int MAX_LODS = 8;
+    static final int HEADER_LEN = 64;
+    static final int VERTEX_LEN = 48;
+    static final int TANGENT_LEN = 16;
+    static final int FIXUP_LEN = 12;
+    /**
+     * The number of floats taken by each vertex in {@link #getVertexData()}
+     */
+    public static final int VERTEX_FLOATS = VERTEX_LEN / 4;
+    /**
+     * The offset, in floats, of a vertex's three bone weights. The float
+     * after them holds packed bone numbers rather than a number.
+     */
+    public static final int WEIGHTS = 0;
+    /**
+     * The offset, in floats, of a vertex's x, y and z position
+     */
+    public static final int POSITION = 4;
+    /**
+     * The offset, in floats, of a vertex's x, y and z normal
+     */
+    public static final int NORMAL = 7;
+    /**
+     * The offset, in floats, of a vertex's u and v texture co-ordinates
+     */
+    public static final int TEXCOORD = 10;
+    ByteBuffer bb;
+    int id = -1;
+    int version = -1;
+    int checksum = 0;
+    int lodCount = 0;
+    int[] lodVertexCounts = new int[MAX_LODS];
+    int fixupCount = 0;
+    int fixupStart = 0;
+    FloatBuffer vertices;
+    FloatBuffer tangents;
+
+    /**
+     * Reads the header of a VVD file and creates views onto its vertices.
+     * @param bb The buffer containing vertex data, from the current position to the limit.
+     * @throws ModelParseException If the data could not be parsed
+     */
+    public VvdData(ByteBuffer bb) throws ModelParseException {
+        this.bb = bb.slice();
+        this.bb.order(ByteOrder.LITTLE_ENDIAN);
+        logger.debug("Parsing vertex data, {} remaining", this.bb.remaining());
+        try {
+            load();
+        } catch (BufferUnderflowException bue) {
+            throw new ModelParseException(bue);
+        }
+    }
+
+    /**
+     * Reads a VVD file, checking that it belongs to the given model.
+     * @param bb The buffer containing vertex data, from the current position to the limit.
+     * @param model The model which the vertices should belong to
+     * @throws ModelParseException If the data could not be parsed, or was
+     * made for a different version of the model
+     */
+    public VvdData(ByteBuffer bb, ModelData model) throws ModelParseException {
+        this(bb);
+        if (!matches(model)) {
+            throw new ModelParseException("Vertex checksum " + checksum + " does not match model checksum " + model.getChecksum());
+        }
+    }
+
+    private void load() throws ModelParseException {
+        id = bb.getInt();
+        if (id != ID) {
+            throw new ModelParseException("Not a VVD file, found ID " + ParseUtil.toAscii(id, true));
+        }
+        version = bb.getInt();
+        checksum = bb.getInt();
+        lodCount = bb.getInt();
+        for (int i = 0; i < MAX_LODS; i++) {
+            lodVertexCounts[i] = bb.getInt();
+        }
+        fixupCount = bb.getInt();
+        fixupStart = bb.getInt();
+        final int vertexStart = bb.getInt();
+        final int tangentStart = bb.getInt();
+        assert (bb.position() == HEADER_LEN);
+        logger.debug("Version {}, {} LODs, {} vertices", new Object[]{version, lodCount, lodVertexCounts[0]});
+
+        if (lodCount < 1 || lodCount > MAX_LODS) {
+            throw new ModelParseException("Invalid LOD count " + lodCount);
+        }
+        final int total = lodVertexCounts[0];
+        vertices = floatView(vertexStart, total, VERTEX_LEN);
+        if (tangentStart == 0) {
+            tangents = floatView(0, 0, TANGENT_LEN);
+        } else {
+            tangents = floatView(tangentStart, total, TANGENT_LEN);
+        }
+        if (fixupCount < 0 || (fixupCount > 0 && fixupStart < 0)
+                || (long) fixupStart + ((long) fixupCount * FIXUP_LEN) > bb.limit()) {
+            throw new ModelParseException(fixupCount + " fixups at offset " + fixupStart + " do not fit in the file");
+        }
+    }
+
+    private FloatBuffer floatView(int start, int count, int stride) throws ModelParseException {
+        if (count < 0 || start < 0 || (long) start + ((long) count * stride) > bb.limit()) {
+            throw new ModelParseException(count + " entries of " + stride + " bytes at offset " + start + " do not fit in the file");
+        }
+        ByteBuffer view = bb.duplicate();
+        view.limit(start + (count * stride));
+        view.position(start);
+        // Slices are always big-endian to begin with
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Checks whether this vertex data was compiled with the given model
+     * @param model The model
+     * @return True if the checksums match
+     */
+    public boolean matches(ModelData model) {
+        return model.getChecksum() == checksum;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Get the number of levels of detail
+     * @return The LOD count, at least one
+     */
+    public int getLodCount() {
+        return lodCount;
+    }
+
+    /**
+     * Get the number of vertices used by a level of detail
+     * @param lod The level of detail, zero being the most detailed
+     * @return The vertex count
+     */
+    public int getVertexCount(int lod) {
+        if (lod < 0 || lod >= lodCount) {
+            throw new IndexOutOfBoundsException("LOD " + lod + " is out of range, there are " + lodCount);
+        }
+        return lodVertexCounts[lod];
+    }
+
+    /**
+     * Get every vertex in the file, which are those of the most detailed LOD.
+     * @return A read-only view of {@link #VERTEX_FLOATS} floats per vertex,
+     * positioned at the first
+     */
+    public FloatBuffer getVertexData() {
+        return vertices.duplicate();
+    }
+
+    /**
+     * Get the tangent of every vertex, for normal mapping.
+     * @return A read-only view of the x, y, z and w of each vertex's tangent
+     * in turn. It is empty if the file has no tangents.
+     */
+    public FloatBuffer getTangentData() {
+        return tangents.duplicate();
+    }
+
+    /**
+     * Get the number of fixups, which rearrange the vertices for lower
+     * levels of detail
+     * @return The fixup count, or zero if every LOD uses the vertices as-is
+     */
+    public int getFixupCount() {
+        return fixupCount;
+    }
+
+    /**
+     * Get the vertices which make up a level of detail, in the order its
+     * meshes refer to them.
+     * @param lod The level of detail
+     * @return A new array of indexes into {@link #getVertexData()}, in units
+     * of whole vertices
+     */
+    public int[] getVertexIndexes(int lod) {
+        int[] ret = new int[getVertexCount(lod)];
+        if (fixupCount == 0) {
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = i;
+            }
+            return ret;
+        }
+        int filled = 0;
+        for (int i = 0; i < fixupCount; i++) {
+            final int pos = fixupStart + (i * FIXUP_LEN);
+            if (bb.getInt(pos) < lod) {
+                // Only used by more detailed LODs
+                continue;
+            }
+            final int source = bb.getInt(pos + 4);
+            final int count = bb.getInt(pos + 8);
+            if (source < 0 || count < 0 || count > ret.length - filled || source > lodVertexCounts[0] - count) {
+                throw new IndexOutOfBoundsException("Fixup " + i + " of " + count + " vertices from " + source + " is out of range");
+            }
+            for (int j = 0; j < count; j++) {
+                ret[filled++] = source + j;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the box which encloses a level of detail
+     * @param lod The level of detail
+     * @param dest An array of at least 6 floats, which is filled with the
+     * minimum x, y and z followed by the maximum. If there are no vertices
+     * it is filled with zeroes.
+     * @return The destination array
+     */
+    public float[] getBounds(int lod, float[] dest) {
+        if (dest.length < 6) {
+            throw new IllegalArgumentException("Bounds need 6 floats");
+        }
+        final int[] indexes = getVertexIndexes(lod);
+        if (indexes.length == 0) {
+            for (int i = 0; i < 6; i++) {
+                dest[i] = 0f;
+            }
+            return dest;
+        }
+        for (int i = 0; i < 3; i++) {
+            dest[i] = Float.POSITIVE_INFINITY;
+            dest[i + 3] = Float.NEGATIVE_INFINITY;
+        }
+        for (int v : indexes) {
+            final int base = (v * VERTEX_FLOATS) + POSITION;
+            for (int i = 0; i < 3; i++) {
+                final float f = vertices.get(base + i);
+                dest[i] = Math.min(dest[i], f);
+                dest[i + 3] = Math.max(dest[i + 3], f);
+            }
+        }
+        return dest;
+    }
+}
@@ -17,7 +17,9 @@ import org.apache.commons.jxpath.JXPathContext;
 
 /**
  * This utility class provides a few simple methods for dealing with JXPath
- * expressions.
+ * expressions. The readers in the vdf package use the faster
+ * {@link com.technofovea.hl2parse.vdf.VdfPath} instead, but these functions
+ * remain available to anyone querying trees through JXPath.
  * 
  * @author Darien Hager
  */
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares a single instance between equal strings. Entity data, FGDs and
+ * KeyValues files use the same small set of keys and class-names over and
+ * over, so the parsers pass those through a pool rather than keeping a
+ * separate copy of each. Pooled strings may be compared by identity.
+ *
+ * Unlike {@link String#intern()} the contents are ordinary heap objects,
+ * and the pool can be cleared or replaced. Only keys and names are pooled,
+ * never arbitrary values, but a pool still grows with every new name it is
+ * given; applications reading unusual data may want to {@link #clear()} it
+ * occasionally or substitute their own.
+ *
+ * This class is thread-safe, and subclasses must be as well.
+ *
+ * @author Darien Hager
+ */
+public class StringPool {
+
+    private static volatile StringPool shared = new StringPool();
+    private final ConcurrentMap<String, String> pool;
+
+    /**
+     * Creates a new, empty pool.
+     */
+    public StringPool() {
+        this(1024);
+    }
+
+    /**
+     * Creates a new, empty pool.
+     * @param expectedSize The number of distinct strings expected
+     */
+    public StringPool(int expectedSize) {
+        pool = new ConcurrentHashMap<String, String>(expectedSize);
+    }
+
+    /**
+     * Gets the pool used by parsers which have not been given one of their own.
+     * @return The shared pool
+     */
+    public static StringPool getShared() {
+        return shared;
+    }
+
+    /**
+     * Replaces the pool used by parsers which have not been given one of
+     * their own. Parsers which are already running keep the old pool.
+     * @param pool The new pool
+     */
+    public static void setShared(StringPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool may not be null");
+        }
+        shared = pool;
+    }
+
+    /**
+     * Gets the pooled instance of a string, adding it if it is new.
+     * @param s The string, may be null
+     * @return An equal string, which is the same instance for all equal
+     * strings given to this pool. Null if the given string was null.
+     */
+    public String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        // Almost every call is for a string already present, so try the cheap read first
+        String existing = pool.get(s);
+        if (existing != null) {
+            return existing;
+        }
+        existing = pool.putIfAbsent(s, s);
+        if (existing != null) {
+            return existing;
+        }
+        return s;
+    }
+
+    /**
+     * Gets the number of distinct strings in the pool.
+     * @return The number of strings
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Empties the pool. Strings already handed out are unaffected, but will
+     * no longer be identical to those returned afterwards.
+     */
+    public void clear() {
+        pool.clear();
+    }
+}
@@ -16,7 +16,9 @@ import com.technofovea.hl2parse.fgd.FgdEntClass;
 import com.technofovea.hl2parse.fgd.FgdProperty;
 import com.technofovea.hl2parse.fgd.FgdSpec;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -86,6 +88,14 @@ public class DependencyFinder {
     FgdSpec fgd;
     List<MapEntity> entities;
     List<ValueSource> allSources = new ArrayList<ValueSource>();
+    /**
+     * Entities grouped by lower-case class-name, in map order
+     */
+    Map<String, List<MapEntity>> entitiesByClass = new HashMap<String, List<MapEntity>>();
+    /**
+     * The entries of {@link #allSources} grouped by lower-case class-name
+     */
+    Map<String, List<ValueSource>> sourcesByClass = new HashMap<String, List<ValueSource>>();
     /**
      * Defaults to an "identity" fixer whose output is the same as its input.
      */
@@ -104,6 +114,21 @@ public class DependencyFinder {
         this.entities = entities;
         this.fixer = fixer;
         createCache();
+        indexEntities();
+    }
+
+    void indexEntities() {
+        entitiesByClass = new HashMap<String, List<MapEntity>>();
+        for (MapEntity ent : entities) {
+            String key = ent.getEntityClass().toLowerCase();
+            List<MapEntity> group = entitiesByClass.get(key);
+            if (group == null) {
+                group = new ArrayList<MapEntity>();
+                entitiesByClass.put(key, group);
+            }
+            group.add(ent);
+        }
+        log.debug("Indexed {} entities into {} classes", entities.size(), entitiesByClass.size());
     }
 
     void createCache() {
@@ -124,6 +149,17 @@ public class DependencyFinder {
             }
         }
         allSources.addAll(getSpecialWorldspawnCases());
+
+        sourcesByClass = new HashMap<String, List<ValueSource>>();
+        for (ValueSource src : allSources) {
+            String key = src.getClassName().toLowerCase();
+            List<ValueSource> group = sourcesByClass.get(key);
+            if (group == null) {
+                group = new ArrayList<ValueSource>();
+                sourcesByClass.put(key, group);
+            }
+            group.add(src);
+        }
     }
 
     List<ValueSource> getSpecialWorldspawnCases() {
@@ -170,35 +206,69 @@ public class DependencyFinder {
      */
     public List<String> getValues(ValueSource valSrc) {
         List<String> ret = new ArrayList<String>();
+        List<MapEntity> matching = entitiesByClass.get(valSrc.getClassName().toLowerCase());
+        if (matching == null) {
+            return ret;
+        }
+        for (MapEntity ent : matching) {
+            appendValues(ent, valSrc, ret);
+        }
+        return ret;
+    }
 
-        // Todo examine optimizations if profiling shows a problem
+    /**
+     * Resolves every known class/property combination against the map entity
+     * data at once. Each entity is visited a single time, which is much
+     * cheaper than calling {@link #getValues(ValueSource)} for every source.
+     * @return A mapping from each source which has values in the map, to
+     * those values. Sources with no values are omitted.
+     */
+    public Map<ValueSource, List<String>> getAllDependencies() {
+        Map<ValueSource, List<String>> ret = new LinkedHashMap<ValueSource, List<String>>();
         for (MapEntity ent : entities) {
-            String entClass = ent.getEntityClass();
-            String propName = valSrc.getPropertyName();
-            if (!entClass.equalsIgnoreCase(valSrc.getClassName())) {
-                continue;
-            }
-            if (!ent.containsKey(propName)) {
+            List<ValueSource> sources = sourcesByClass.get(ent.getEntityClass().toLowerCase());
+            if (sources == null) {
                 continue;
             }
-
-            // Get the "raw" strings from the entity data
-            List<String> rawStrings = ent.getValues(valSrc.getPropertyName());
-            
-            // Some values have implicit file extensions or subdirectories, 
-            // which we want to fix before returning.
-            List<String> fixedStrings = new ArrayList<String>(rawStrings.size());
-            for(String s: rawStrings){
-                String fixed =fixer.fixPath(s,valSrc);
-                if(fixed.startsWith(fixer.getNonPathPrefix())){
-                    log.debug("Skipping apparent non-path: {}",fixed.substring(fixer.getNonPathPrefix().length()));
+            for (ValueSource valSrc : sources) {
+                if (!ent.containsKey(valSrc.getPropertyName())) {
+                    continue;
+                }
+                List<String> found = ret.get(valSrc);
+                if (found == null) {
+                    found = new ArrayList<String>();
+                    ret.put(valSrc, found);
                 }
-                fixedStrings.add(fixed);
+                appendValues(ent, valSrc, found);
             }
-            ret.addAll(fixedStrings);
-
         }
         return ret;
     }
 
+    /**
+     * Adds the values of one property of an entity to a list, after fixing
+     * them up.
+     * @param ent The entity, whose class is assumed to match the source
+     * @param valSrc The property to look for
+     * @param dest The list to add fixed values to
+     */
+    void appendValues(MapEntity ent, ValueSource valSrc, List<String> dest) {
+        String propName = valSrc.getPropertyName();
+        if (!ent.containsKey(propName)) {
+            return;
+        }
+
+        // Get the "raw" strings from the entity data
+        List<String> rawStrings = ent.getValues(propName);
+
+        // Some values have implicit file extensions or subdirectories,
+        // which we want to fix before returning.
+        for (String s : rawStrings) {
+            String fixed = fixer.fixPath(s, valSrc);
+            if (fixed.startsWith(fixer.getNonPathPrefix())) {
+                log.debug("Skipping apparent non-path: {}", fixed.substring(fixer.getNonPathPrefix().length()));
+            }
+            dest.add(fixed);
+        }
+    }
 }
@@ -12,6 +12,7 @@
  */
 package com.technofovea.hl2parse.entdata;
 
+import com.technofovea.hl2parse.StringPool;
 import com.technofovea.hl2parse.vdf.VdfAttribute;
 import com.technofovea.hl2parse.vdf.VdfNode;
 import java.util.ArrayList;
@@ -66,42 +67,94 @@ public class MapEntity {
 
     /**
      * Creates a new map entity with the given keys and values. Keys are
-     * automatically checked for class-name information.
+     * automatically checked for class-name information. Keys are
+     * case-insensitive, and the class-name and keys are taken from the shared
+     * {@link StringPool} since the same few are used by many entities.
      *
      * @param attributes All attributes on this entity, including class-name and
-     * other "special" values.
+     * other "special" values. Neither the map nor its value lists are
+     * modified or kept by the new entity.
      * @throws EntdataException If there was a problem interpreting the data.
      */
     public MapEntity(Map<String, List<String>> attributes) throws EntdataException {
-        if (!attributes.containsKey(KEY_CLASS)) {
-            throw new EntdataException("No class-name specified for entity");
-        }
-        if (!(attributes.get(KEY_CLASS).size() < 1)) {
-            throw new EntdataException("No class-name specified for entity");
-        }
-
-        entityClass = attributes.remove(KEY_CLASS).get(0).toLowerCase().trim();
-        for (String key : attributes.keySet()) {
-            key = key.trim().toLowerCase();
-            List<String> vals = attributes.get(key);
-            if (key.equalsIgnoreCase(KEY_ID)) {
-
+        final StringPool pool = StringPool.getShared();
+        for (Map.Entry<String, List<String>> entry : attributes.entrySet()) {
+            String key = entry.getKey().trim().toLowerCase();
+            List<String> vals = entry.getValue();
+            if (vals == null || vals.size() < 1) {
+                logger.debug("Skipping key {} with no values", key);
+                continue;
+            }
+            if (key.equals(KEY_CLASS)) {
+                entityClass = pool.intern(vals.get(0).toLowerCase().trim());
+            } else if (key.equals(KEY_ID)) {
                 try {
-                    hammerId = Integer.parseInt(vals.get(0).toLowerCase());
+                    hammerId = Integer.parseInt(vals.get(0).trim());
                 } catch (NumberFormatException nfe) {
                     throw new EntdataException("Invalid hammer ID: " + vals);
                 }
             } else {
-                if(vals.size()>0){
-                    this.attrs.put(key, vals);
-                }//TODO log?
+                List<String> existing = attrs.get(key);
+                if (existing == null) {
+                    attrs.put(pool.intern(key), new ArrayList<String>(vals));
+                } else {
+                    existing.addAll(vals);
+                }
             }
         }
+        if (entityClass == null) {
+            throw new EntdataException("No class-name specified for entity");
+        }
+    }
 
+    /**
+     * Creates a new map entity from key/value pairs as they appear in the
+     * map, such as those given to an entity lump visitor. Keys and values
+     * are treated just as by {@link #MapEntity(java.util.Map)}, but the
+     * value lists are built directly rather than copied from another map.
+     *
+     * @param keys The key of each pair, in order
+     * @param values The value of each pair, in the same order as the keys.
+     * Neither list is modified or kept by the new entity.
+     * @throws EntdataException If there was a problem interpreting the data.
+     */
+    public MapEntity(List<String> keys, List<String> values) throws EntdataException {
+        if (keys.size() != values.size()) {
+            throw new IllegalArgumentException(keys.size() + " keys given for " + values.size() + " values");
+        }
+        final StringPool pool = StringPool.getShared();
+        for (int i = 0; i < keys.size(); i++) {
+            final String key = keys.get(i).trim().toLowerCase();
+            final String val = values.get(i);
+            if (key.equals(KEY_CLASS)) {
+                if (entityClass == null) {
+                    entityClass = pool.intern(val.toLowerCase().trim());
+                }
+            } else if (key.equals(KEY_ID)) {
+                if (hammerId == -1) {
+                    try {
+                        hammerId = Integer.parseInt(val.trim());
+                    } catch (NumberFormatException nfe) {
+                        throw new EntdataException("Invalid hammer ID: " + val);
+                    }
+                }
+            } else {
+                List<String> existing = attrs.get(key);
+                if (existing == null) {
+                    existing = new ArrayList<String>(1);
+                    attrs.put(pool.intern(key), existing);
+                }
+                existing.add(val);
+            }
+        }
+        if (entityClass == null) {
+            throw new EntdataException("No class-name specified for entity");
+        }
     }
 
     /**
-     * Creates a new map entity from an isolated {@link VdfNode}
+     * Creates a new map entity from an isolated {@link VdfNode}. As with
+     * {@link #MapEntity(java.util.Map)}, the class-name and keys are pooled.
      *
      * @param entityNode The node containing key/value mappings describing the entity.
      * @throws EntdataException If there was a problem interpreting the data.
@@ -111,14 +164,15 @@ public class MapEntity {
         if (entityNode.getChildren().size() > 0) {
             throw new EntdataException("Entity nodes may not have child blocks, but " + entityNode.getChildren().size() + " found.");
         }
+        final StringPool pool = StringPool.getShared();
         for (VdfAttribute attr : entityNode.getAttributes()) {
-            String key = attr.getName().toLowerCase().trim();
+            String key = pool.intern(attr.getName().toLowerCase().trim());
             String val = attr.getValue();
 
 
 
             if (key.equalsIgnoreCase(KEY_CLASS)) {
-                entityClass = val.toLowerCase();
+                entityClass = pool.intern(val.toLowerCase());
             } else if (key.equalsIgnoreCase(KEY_ID)) {
                 try {
                     hammerId = Integer.parseInt(val.toLowerCase());
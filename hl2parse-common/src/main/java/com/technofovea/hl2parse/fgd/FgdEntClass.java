@@ -112,11 +112,24 @@ public class FgdEntClass {
     }
 
     public void setType(String type) {
-        type = FgdSpec.cleanQuotes(type);
-        if(type.startsWith("@")){
+        this.type = cleanType(type);
+    }
+
+    /**
+     * Strips the quotes and leading "@" from a class type as written in an
+     * FGD. A type which is already clean is returned as the same instance,
+     * so that a pooled string stays pooled.
+     * @param type The raw type, such as "@PointClass"
+     * @return The cleaned type, such as "PointClass"
+     */
+    static String cleanType(String type) {
+        if (type.indexOf('"') >= 0) {
+            type = FgdSpec.cleanQuotes(type);
+        }
+        if (type.startsWith("@")) {
             type = type.substring(1);
         }
-        this.type = type;
+        return type;
     }
 
     void addModifier(String name, List<String> values) {
@@ -217,29 +230,16 @@ public class FgdEntClass {
     }
 
 
+    /**
+     * Combines this class with the properties, inputs, outputs and modifiers
+     * of everything it inherits from. Results are cached by the spec, see
+     * {@link FgdSpec#getInherited(FgdEntClass)}.
+     * @param spec The spec which defines this class's ancestors
+     * @return A combined class, shared with other callers. Its modifiers,
+     * properties, inputs and outputs cannot be modified, and attempting to
+     * do so throws an UnsupportedOperationException.
+     */
     public FgdEntClass getInherited(FgdSpec spec) {
-        List<FgdEntClass> ancestry = getAncestry(spec);
-        // This new object is like our current object, except that it
-        // contains combined references to all the multiple-inheritance
-        // properties, inputs, outputs, and modifiers.
-        FgdEntClass inherited = new FgdEntClass();
-        inherited.setType(getType());
-        inherited.setDescription(getDescription());
-       
-
-        // Due to how putAll layers things in, overwriting what is already there,
-        // we must traverse the ancestry list in reverse.
-        Collections.reverse(ancestry);
-        for (FgdEntClass ancestor : ancestry) {
-            inherited.props.putAll(ancestor.props);
-            inherited.modifiers.putAll(ancestor.modifiers);
-            inherited.outputs.putAll(ancestor.outputs);
-            inherited.inputs.putAll(ancestor.inputs);
-
-        }
-        // Lastly, remove the base() modifier so that if we re-output things
-        // are less confusing.
-        inherited.modifiers.remove(INHERITANCE_MODIFIER);
-        return inherited;
+        return spec.getInherited(this);
     }
 }
@@ -0,0 +1,478 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.fgd;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves a fully-parsed {@link FgdSpec} to a compact binary file, so that it
+ * can be restored later without lexing and parsing the FGD text again.
+ *
+ * A snapshot records every file which went into the spec (the target file
+ * and everything it included) along with their modification times and
+ * lengths, and a digest of that list. When read back, the snapshot is only
+ * used if all of those files are unchanged; otherwise it is ignored, and
+ * the caller should parse the FGD normally and write a new snapshot.
+ *
+ * All strings are stored once, in a table at the start of the snapshot, and
+ * are referred to by index everywhere else.
+ *
+ * @author Darien Hager
+ */
+public class FgdSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(FgdSnapshot.class);
+    /**
+     * "FGDS" in ASCII
+     */
+    public static final int MAGIC = 0x46474453;
+    /**
+     * Incremented whenever the layout changes, so that old snapshots are
+     * simply treated as stale.
+     */
+    public static final int FORMAT_VERSION = 2;
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final String CHARSET = "UTF-8";
+    private static final int NULL_REF = -1;
+
+    private FgdSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the given spec. The file is written under a
+     * temporary name and then renamed, so that a reader never sees a partial
+     * snapshot.
+     * @param spec The spec to save
+     * @param sources The files the spec was parsed from, the target FGD first
+     * @param dest The snapshot file to create or replace
+     * @throws IOException If the sources could not be read, or the snapshot
+     * could not be written
+     */
+    public static void write(FgdSpec spec, List<File> sources, File dest) throws IOException {
+        List<File> files = new ArrayList<File>(sources.size());
+        for (File f : sources) {
+            files.add(f.getAbsoluteFile());
+        }
+
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeSpec(new DataOutputStream(body), spec, strings);
+
+        File temp = new File(dest.getPath() + ".tmp");
+        OutputStream fos = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(files.size());
+            for (File f : files) {
+                writeString(out, f.getPath());
+                out.writeLong(f.lastModified());
+                out.writeLong(f.length());
+            }
+            out.write(digest(files));
+            out.writeInt(strings.size());
+            for (String s : strings.values()) {
+                writeString(out, s);
+            }
+            body.writeTo(out);
+            out.flush();
+        } finally {
+            fos.close();
+        }
+        if (dest.exists() && !dest.delete()) {
+            temp.delete();
+            throw new IOException("Could not replace existing snapshot " + dest);
+        }
+        if (!temp.renameTo(dest)) {
+            temp.delete();
+            throw new IOException("Could not move snapshot into place at " + dest);
+        }
+        logger.debug("Wrote snapshot of {} classes from {} files to {}", new Object[]{spec.definedClasses.size(), files.size(), dest});
+    }
+
+    /**
+     * Restores a spec from a snapshot, if the snapshot is still up to date.
+     * If the snapshot is missing, stale, was made from a different target, or
+     * is corrupt, then nothing is added to the spec.
+     *
+     * @param snapshot The snapshot file
+     * @param target The FGD file which the snapshot is expected to be of
+     * @param spec The spec to add the snapshot's contents to
+     * @return The files the spec was originally parsed from, or null if the
+     * snapshot could not be used.
+     * @throws IOException If the snapshot exists but could not be read
+     */
+    public static List<File> read(File snapshot, File target, FgdSpec spec) throws IOException {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        ByteBuffer buf = load(snapshot);
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+                logger.debug("Snapshot {} is not of the current format", snapshot);
+                return null;
+            }
+            final int fileCount = buf.getInt();
+            List<File> files = new ArrayList<File>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                File f = new File(readString(buf));
+                long modified = buf.getLong();
+                long length = buf.getLong();
+                if (f.lastModified() != modified || f.length() != length) {
+                    logger.debug("Snapshot {} is stale, {} has changed", snapshot, f);
+                    return null;
+                }
+                files.add(f);
+            }
+            if (files.isEmpty() || !files.get(0).equals(target.getAbsoluteFile())) {
+                logger.debug("Snapshot {} is not of {}", snapshot, target);
+                return null;
+            }
+            byte[] expected = new byte[digestLength()];
+            buf.get(expected);
+            if (!Arrays.equals(expected, digest(files))) {
+                logger.warn("Snapshot {} has a bad file list digest, ignoring it", snapshot);
+                return null;
+            }
+
+            final int stringCount = readCount(buf);
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                strings[i] = readString(buf);
+            }
+            // Decode completely before touching the caller's spec
+            FgdSpec loaded = new FgdSpec();
+            readSpec(buf, loaded, strings);
+            spec.addAll(loaded);
+            logger.debug("Read snapshot of {} classes from {}", loaded.definedClasses.size(), snapshot);
+            return files;
+        } catch (BufferUnderflowException ex) {
+            logger.warn("Snapshot {} is truncated, ignoring it", snapshot);
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            logger.warn("Snapshot {} is corrupt, ignoring it", snapshot);
+            return null;
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Snapshot {} is corrupt, ignoring it", snapshot);
+            return null;
+        }
+    }
+
+    /**
+     * Reads a whole snapshot onto the heap. Snapshots are small, and a
+     * memory-mapped file could not be replaced on some platforms until the
+     * mapping was garbage-collected.
+     */
+    private static ByteBuffer load(File snapshot) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+        try {
+            FileChannel chan = raf.getChannel();
+            final long size = chan.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + snapshot + " is too large");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (chan.read(buf, buf.position()) < 0) {
+                    throw new IOException("Snapshot " + snapshot + " ended early");
+                }
+            }
+            buf.flip();
+            return buf;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int digestLength() {
+        return newDigest().getDigestLength();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JRE is required to provide MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Digests the path, modification time and length of each file. The files
+     * themselves are not read, since checking this metadata is what keeps
+     * loading a snapshot cheap.
+     */
+    private static byte[] digest(List<File> files) throws IOException {
+        MessageDigest md = newDigest();
+        for (File f : files) {
+            md.update(f.getPath().getBytes(CHARSET));
+            md.update(longBytes(f.lastModified()));
+            md.update(longBytes(f.length()));
+        }
+        return md.digest();
+    }
+
+    private static byte[] longBytes(long val) {
+        return ByteBuffer.allocate(8).putLong(val).array();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) throws IOException {
+        final int len = buf.getInt();
+        if (len < 0) {
+            throw new IllegalArgumentException("Negative string length " + len);
+        }
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static void writeSpec(DataOutputStream out, FgdSpec spec, StringTable strings) throws IOException {
+        out.writeBoolean(spec.boundsSet);
+        out.writeInt(spec.mapMin);
+        out.writeInt(spec.mapMax);
+
+        out.writeInt(spec.excludedMaterials.size());
+        for (String s : spec.excludedMaterials) {
+            out.writeInt(strings.ref(s));
+        }
+
+        out.writeInt(spec.visGroups.size());
+        for (Map.Entry<String, VisGroup> entry : spec.visGroups.entrySet()) {
+            out.writeInt(strings.ref(entry.getKey()));
+            Map<String, Set<String>> sections = entry.getValue().sections;
+            out.writeInt(sections.size());
+            for (Map.Entry<String, Set<String>> section : sections.entrySet()) {
+                out.writeInt(strings.ref(section.getKey()));
+                writeRefs(out, section.getValue(), strings);
+            }
+        }
+
+        out.writeInt(spec.definedClasses.size());
+        for (Map.Entry<String, FgdEntClass> entry : spec.definedClasses.entrySet()) {
+            out.writeInt(strings.ref(entry.getKey()));
+            writeClass(out, entry.getValue(), strings);
+        }
+    }
+
+    private static void writeClass(DataOutputStream out, FgdEntClass entClass, StringTable strings) throws IOException {
+        out.writeInt(strings.ref(entClass.type));
+        out.writeInt(strings.ref(entClass.description));
+
+        out.writeInt(entClass.modifiers.size());
+        for (Map.Entry<String, List<String>> entry : entClass.modifiers.entrySet()) {
+            out.writeInt(strings.ref(entry.getKey()));
+            writeRefs(out, entry.getValue(), strings);
+        }
+
+        out.writeInt(entClass.props.size());
+        for (Map.Entry<String, FgdProperty> entry : entClass.props.entrySet()) {
+            FgdProperty prop = entry.getValue();
+            out.writeInt(strings.ref(entry.getKey()));
+            out.writeInt(strings.ref(prop.type));
+            out.writeBoolean(prop.readonly);
+            out.writeInt(strings.ref(prop.shortDesc));
+            out.writeInt(strings.ref(prop.longDesc));
+            out.writeInt(strings.ref(prop.defaultVal));
+            out.writeInt(prop.flags.size());
+            for (FlagValue flag : prop.flags) {
+                out.writeInt(flag.getIntValue());
+                out.writeInt(strings.ref(flag.getName()));
+                out.writeBoolean(flag.isDefaultOn());
+            }
+            out.writeInt(prop.options.size());
+            for (ChoicesValue choice : prop.options) {
+                out.writeInt(strings.ref(choice.getValue()));
+                out.writeInt(strings.ref(choice.getDescription()));
+            }
+        }
+
+        out.writeInt(entClass.inputs.size());
+        for (Map.Entry<String, FgdInput> entry : entClass.inputs.entrySet()) {
+            out.writeInt(strings.ref(entry.getKey()));
+            out.writeInt(strings.ref(entry.getValue().getType()));
+            out.writeInt(strings.ref(entry.getValue().getDescription()));
+        }
+
+        out.writeInt(entClass.outputs.size());
+        for (Map.Entry<String, FgdOutput> entry : entClass.outputs.entrySet()) {
+            out.writeInt(strings.ref(entry.getKey()));
+            out.writeInt(strings.ref(entry.getValue().getType()));
+            out.writeInt(strings.ref(entry.getValue().getDescription()));
+        }
+    }
+
+    private static void writeRefs(DataOutputStream out, Collection<String> items, StringTable strings) throws IOException {
+        out.writeInt(items.size());
+        for (String s : items) {
+            out.writeInt(strings.ref(s));
+        }
+    }
+
+    private static void readSpec(ByteBuffer buf, FgdSpec spec, String[] strings) {
+        spec.boundsSet = buf.get() != 0;
+        spec.mapMin = buf.getInt();
+        spec.mapMax = buf.getInt();
+
+        spec.excludedMaterials.addAll(readRefs(buf, strings));
+
+        final int groupCount = readCount(buf);
+        for (int i = 0; i < groupCount; i++) {
+            String name = lookup(buf, strings);
+            VisGroup grp = new VisGroup();
+            final int sectionCount = readCount(buf);
+            for (int j = 0; j < sectionCount; j++) {
+                String sectionName = lookup(buf, strings);
+                grp.sections.put(sectionName, new HashSet<String>(readRefs(buf, strings)));
+            }
+            spec.visGroups.put(name, grp);
+        }
+
+        final int classCount = readCount(buf);
+        for (int i = 0; i < classCount; i++) {
+            String name = lookup(buf, strings);
+            spec.definedClasses.put(name, readClass(buf, strings));
+        }
+    }
+
+    private static FgdEntClass readClass(ByteBuffer buf, String[] strings) {
+        FgdEntClass entClass = new FgdEntClass();
+        entClass.type = lookup(buf, strings);
+        entClass.description = lookup(buf, strings);
+
+        final int modifierCount = readCount(buf);
+        for (int i = 0; i < modifierCount; i++) {
+            String name = lookup(buf, strings);
+            entClass.modifiers.put(name, readRefs(buf, strings));
+        }
+
+        final int propCount = readCount(buf);
+        for (int i = 0; i < propCount; i++) {
+            String name = lookup(buf, strings);
+            FgdProperty prop = new FgdProperty();
+            prop.type = lookup(buf, strings);
+            prop.readonly = buf.get() != 0;
+            prop.shortDesc = lookup(buf, strings);
+            prop.longDesc = lookup(buf, strings);
+            prop.defaultVal = lookup(buf, strings);
+            final int flagCount = readCount(buf);
+            for (int j = 0; j < flagCount; j++) {
+                int value = buf.getInt();
+                String flagName = lookup(buf, strings);
+                prop.flags.add(new FlagValue(value, flagName, buf.get() != 0));
+            }
+            final int optionCount = readCount(buf);
+            for (int j = 0; j < optionCount; j++) {
+                String value = lookup(buf, strings);
+                prop.options.add(new ChoicesValue(value, lookup(buf, strings)));
+            }
+            entClass.props.put(name, prop);
+        }
+
+        final int inputCount = readCount(buf);
+        for (int i = 0; i < inputCount; i++) {
+            String name = lookup(buf, strings);
+            String type = lookup(buf, strings);
+            entClass.inputs.put(name, new FgdInput(type, lookup(buf, strings)));
+        }
+
+        final int outputCount = readCount(buf);
+        for (int i = 0; i < outputCount; i++) {
+            String name = lookup(buf, strings);
+            String type = lookup(buf, strings);
+            entClass.outputs.put(name, new FgdOutput(type, lookup(buf, strings)));
+        }
+        return entClass;
+    }
+
+    private static int readCount(ByteBuffer buf) {
+        final int count = buf.getInt();
+        if (count < 0 || count > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid item count " + count);
+        }
+        return count;
+    }
+
+    private static List<String> readRefs(ByteBuffer buf, String[] strings) {
+        final int count = readCount(buf);
+        List<String> ret = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(lookup(buf, strings));
+        }
+        return ret;
+    }
+
+    private static String lookup(ByteBuffer buf, String[] strings) {
+        final int ref = buf.getInt();
+        if (ref == NULL_REF) {
+            return null;
+        }
+        return strings[ref];
+    }
+
+    /**
+     * Assigns each distinct string an index, in order of first use.
+     */
+    private static class StringTable {
+
+        private final Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+
+        int ref(String s) {
+            if (s == null) {
+                return NULL_REF;
+            }
+            Integer idx = indexes.get(s);
+            if (idx == null) {
+                idx = indexes.size();
+                indexes.put(s, idx);
+            }
+            return idx;
+        }
+
+        int size() {
+            return indexes.size();
+        }
+
+        Iterable<String> values() {
+            return indexes.keySet();
+        }
+    }
+}
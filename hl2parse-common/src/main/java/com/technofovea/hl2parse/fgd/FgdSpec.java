@@ -12,10 +12,15 @@
  */
 package com.technofovea.hl2parse.fgd;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Represents an FGD 'document' and associated data. 
@@ -23,7 +28,18 @@ import java.util.Set;
  */
 public class FgdSpec {
 
+    private static final Logger logger = LoggerFactory.getLogger(FgdSpec.class);
     Map<String, FgdEntClass> definedClasses = new HashMap<String, FgdEntClass>();
+    /**
+     * The ancestry of each class, as from {@link FgdEntClass#getAncestry(FgdSpec)}.
+     * Null until inheritance is first resolved, and reset whenever the
+     * classes change.
+     */
+    Map<FgdEntClass, List<FgdEntClass>> ancestryCache = null;
+    /**
+     * The flattened form of each class, see {@link #getInherited(FgdEntClass)}
+     */
+    Map<FgdEntClass, FgdEntClass> inheritedCache = null;
     Map<String, VisGroup> visGroups = new HashMap<String, VisGroup>();
     boolean boundsSet = false;
     int mapMin = -32768;
@@ -70,6 +86,7 @@ public class FgdSpec {
 
     public void addEntClass(String name, FgdEntClass item) {
         definedClasses.put(name, item);
+        invalidateInheritance();
     }
 
     public FgdEntClass getEntClass(String name) {
@@ -82,6 +99,154 @@ public class FgdSpec {
 
     public void clearEntClases() {
         definedClasses.clear();
+        invalidateInheritance();
+    }
+
+    /**
+     * Adds everything defined by another spec to this one, just as if it had
+     * been parsed into this spec directly.
+     * @param other The spec to copy from
+     */
+    void addAll(FgdSpec other) {
+        if (other.boundsSet) {
+            setMapBounds(other.mapMin, other.mapMax);
+        }
+        excludedMaterials.addAll(other.excludedMaterials);
+        visGroups.putAll(other.visGroups);
+        definedClasses.putAll(other.definedClasses);
+        invalidateInheritance();
+    }
+
+    synchronized void invalidateInheritance() {
+        ancestryCache = null;
+        inheritedCache = null;
+    }
+
+    /**
+     * Retrieves a class combined with everything it inherits, see
+     * {@link FgdEntClass#getInherited(FgdSpec)}.
+     *
+     * The first call resolves every class in the spec at once, parents before
+     * children so that their results can be re-used, and later calls are
+     * simple lookups until a class is added or the classes are cleared. The
+     * cache is guarded by this spec's lock, so a spec may be shared between
+     * threads as long as its classes are not being changed at the same time.
+     *
+     * Unlike earlier versions, the returned object is shared between callers
+     * and its maps cannot be modified. Callers which want to alter it should
+     * copy what they need.
+     *
+     * @param entClass The class to resolve
+     * @return A combined class
+     */
+    public synchronized FgdEntClass getInherited(FgdEntClass entClass) {
+        if (inheritedCache == null) {
+            ancestryCache = new HashMap<FgdEntClass, List<FgdEntClass>>();
+            inheritedCache = new HashMap<FgdEntClass, FgdEntClass>();
+            Set<FgdEntClass> inProgress = new HashSet<FgdEntClass>();
+            for (FgdEntClass item : definedClasses.values()) {
+                resolve(item, inProgress);
+            }
+            logger.debug("Resolved inheritance for {} classes", inheritedCache.size());
+        }
+        return resolve(entClass, new HashSet<FgdEntClass>());
+    }
+
+    /**
+     * Works out the ancestry and flattened form of a class, re-using the
+     * results for its parents where possible.
+     * @param entClass The class to resolve
+     * @param inProgress Classes further up the call stack, used to detect cycles
+     * @return The flattened class
+     */
+    private FgdEntClass resolve(FgdEntClass entClass, Set<FgdEntClass> inProgress) {
+        FgdEntClass done = inheritedCache.get(entClass);
+        if (done != null) {
+            return done;
+        }
+        inProgress.add(entClass);
+
+        /* Build the same ancestry list as FgdEntClass.getAncestry(). Whenever
+         * a parent's ancestry has nothing in common with what has been found
+         * so far, it can be appended wholesale; otherwise fall back to walking
+         * the tree, since which duplicates get skipped depends on order.
+         */
+        List<FgdEntClass> parents = entClass.getDirectParents(this);
+        List<FgdEntClass> ancestry = new ArrayList<FgdEntClass>();
+        Set<FgdEntClass> seen = new HashSet<FgdEntClass>();
+        ancestry.add(entClass);
+        seen.add(entClass);
+        boolean composable = true;
+        for (int i = parents.size() - 1; i >= 0; i--) {
+            FgdEntClass p = parents.get(i);
+            if (seen.contains(p)) {
+                logger.trace("Ancestry already contains element {}, skipping.", p);
+                composable = false;
+                break;
+            }
+            if (!inProgress.contains(p)) {
+                resolve(p, inProgress);
+                List<FgdEntClass> parentAncestry = ancestryCache.get(p);
+                if (Collections.disjoint(parentAncestry, seen)) {
+                    ancestry.addAll(parentAncestry);
+                    seen.addAll(parentAncestry);
+                    continue;
+                }
+            }
+            composable = false;
+            appendAncestry(p, ancestry, seen);
+        }
+
+        FgdEntClass combined = new FgdEntClass();
+        combined.setType(entClass.getType());
+        combined.setDescription(entClass.getDescription());
+        if (composable) {
+            // Later parents override earlier ones, and the class overrides them all
+            for (FgdEntClass p : parents) {
+                mergeInto(combined, inheritedCache.get(p));
+            }
+            mergeInto(combined, entClass);
+        } else {
+            for (int i = ancestry.size() - 1; i >= 0; i--) {
+                mergeInto(combined, ancestry.get(i));
+            }
+        }
+        // Remove the base() modifier so that if we re-output things are less confusing.
+        combined.modifiers.remove(FgdEntClass.INHERITANCE_MODIFIER);
+        combined.modifiers = Collections.unmodifiableMap(combined.modifiers);
+        combined.props = Collections.unmodifiableMap(combined.props);
+        combined.inputs = Collections.unmodifiableMap(combined.inputs);
+        combined.outputs = Collections.unmodifiableMap(combined.outputs);
+
+        inProgress.remove(entClass);
+        ancestryCache.put(entClass, ancestry);
+        inheritedCache.put(entClass, combined);
+        return combined;
+    }
+
+    /**
+     * Walks up the tree exactly as {@link FgdEntClass#appendAncestry(java.util.List, FgdSpec)}
+     * does, but with a set for finding duplicates.
+     */
+    private void appendAncestry(FgdEntClass item, List<FgdEntClass> ancestry, Set<FgdEntClass> seen) {
+        ancestry.add(item);
+        seen.add(item);
+        List<FgdEntClass> parents = item.getDirectParents(this);
+        for (int i = parents.size() - 1; i >= 0; i--) {
+            FgdEntClass p = parents.get(i);
+            if (seen.contains(p)) {
+                logger.trace("Ancestry already contains element {}, skipping.", p);
+                return;
+            }
+            appendAncestry(p, ancestry, seen);
+        }
+    }
+
+    private static void mergeInto(FgdEntClass dest, FgdEntClass src) {
+        dest.props.putAll(src.props);
+        dest.modifiers.putAll(src.modifiers);
+        dest.outputs.putAll(src.outputs);
+        dest.inputs.putAll(src.inputs);
     }
 
     public VisGroup getVisGroup(String name) {
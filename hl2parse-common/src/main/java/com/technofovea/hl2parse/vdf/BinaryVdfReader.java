@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.vdf;
+
+import com.technofovea.hl2parse.StringPool;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads binary KeyValues data, as used by Steam and some Source tools. Each
+ * entry is a type byte, a null-terminated key, and then a value whose layout
+ * depends on the type. A block's entries continue until an end marker.
+ *
+ * Numbers and other non-string values are converted to their text form, so
+ * that the result is the same as parsing the equivalent text file. Blocks
+ * with empty names are treated as anonymous. Keys and block names are passed
+ * through a {@link StringPool}. Data is read in place from the buffer, which
+ * may be memory-mapped.
+ *
+ * @see BinaryVdfWriter
+ * @author Darien Hager
+ */
+public class BinaryVdfReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryVdfReader.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset UTF16 = Charset.forName("UTF-16LE");
+    /**
+     * Starts a block of further entries
+     */
+    public static final byte TYPE_BLOCK = 0;
+    public static final byte TYPE_STRING = 1;
+    public static final byte TYPE_INT = 2;
+    public static final byte TYPE_FLOAT = 3;
+    public static final byte TYPE_POINTER = 4;
+    public static final byte TYPE_WSTRING = 5;
+    public static final byte TYPE_COLOR = 6;
+    public static final byte TYPE_UINT64 = 7;
+    /**
+     * Ends the current block
+     */
+    public static final byte TYPE_END = 8;
+    public static final byte TYPE_INT64 = 10;
+    /**
+     * An alternative end marker, written by some versions of Steam
+     */
+    public static final byte TYPE_ALT_END = 11;
+    private final ByteBuffer data;
+    private char[] scratch = new char[256];
+    private StringPool pool = StringPool.getShared();
+    /**
+     * The text of the string found by the last call to {@link #readString(int)}
+     */
+    private String lastString;
+
+    /**
+     * Creates a new reader over the given data.
+     * @param data The binary data, from the current position to the limit.
+     * It is not modified.
+     */
+    public BinaryVdfReader(ByteBuffer data) {
+        this.data = data.slice();
+        this.data.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a new reader over the given data.
+     * @param data The binary data. The array is not copied.
+     */
+    public BinaryVdfReader(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Sets the pool used for keys and block names. By default this is
+     * {@link StringPool#getShared()} at the time the reader was created.
+     * @param pool The pool to use
+     */
+    public void setStringPool(StringPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool may not be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Reads an entire file, which is memory-mapped rather than read.
+     * @param file The file to read
+     * @return The data, as a tree
+     * @throws IOException If the file could not be read
+     * @throws VdfParseException If the data is malformed
+     */
+    public static VdfRoot parse(File file) throws IOException, VdfParseException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buf;
+        try {
+            FileChannel chan = raf.getChannel();
+            buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+        } finally {
+            // The mapping remains valid after the file is closed
+            raf.close();
+        }
+        return new BinaryVdfReader(buf).parse();
+    }
+
+    /**
+     * Reads all of the data into a tree.
+     * @return The top-level blocks, as children of a new root
+     * @throws VdfParseException If the data is malformed
+     */
+    public VdfRoot parse() throws VdfParseException {
+        VdfTreeBuilder builder = new VdfTreeBuilder();
+        parse(builder);
+        return builder.getRoot();
+    }
+
+    /**
+     * Reads all of the data, reporting each block and value to a handler in
+     * the same way as {@link VdfParser#parse(com.technofovea.hl2parse.vdf.VdfParser.Handler)}.
+     * @param handler The handler to receive events
+     * @return The position after the last entry read
+     * @throws VdfParseException If the data is malformed, or the handler aborted
+     */
+    public int parse(VdfParser.Handler handler) throws VdfParseException {
+        try {
+            return read(handler);
+        } catch (BufferUnderflowException ex) {
+            throw new VdfParseException("Binary data is truncated", ex);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new VdfParseException("Binary data is truncated", ex);
+        }
+    }
+
+    private int read(VdfParser.Handler handler) throws VdfParseException {
+        int depth = 0;
+        int pos = 0;
+        final int limit = data.limit();
+        while (pos < limit) {
+            final int entryPos = pos;
+            final byte type = data.get(pos++);
+            if (type == TYPE_END || type == TYPE_ALT_END) {
+                if (depth == 0) {
+                    // End of the top-level entries
+                    break;
+                }
+                depth--;
+                handler.endBlock();
+                continue;
+            }
+            pos = readString(pos);
+            final String key = pool.intern(lastString);
+            String value;
+            switch (type) {
+                case TYPE_BLOCK:
+                    depth++;
+                    // The format has no anonymous blocks, so they are written with empty names
+                    handler.startBlock(key.length() == 0 ? null : key);
+                    continue;
+                case TYPE_STRING:
+                    pos = readString(pos);
+                    value = lastString;
+                    break;
+                case TYPE_INT:
+                case TYPE_POINTER:
+                    value = Integer.toString(data.getInt(pos));
+                    pos += 4;
+                    break;
+                case TYPE_FLOAT:
+                    value = Float.toString(data.getFloat(pos));
+                    pos += 4;
+                    break;
+                case TYPE_COLOR:
+                    value = (data.get(pos) & 0xFF) + " " + (data.get(pos + 1) & 0xFF) + " "
+                            + (data.get(pos + 2) & 0xFF) + " " + (data.get(pos + 3) & 0xFF);
+                    pos += 4;
+                    break;
+                case TYPE_UINT64:
+                    value = unsignedToString(data.getLong(pos));
+                    pos += 8;
+                    break;
+                case TYPE_INT64:
+                    value = Long.toString(data.getLong(pos));
+                    pos += 8;
+                    break;
+                case TYPE_WSTRING:
+                    final int chars = data.getShort(pos) & 0xFFFF;
+                    if (pos + 2 + (chars * 2) > limit) {
+                        throw new VdfParseException("Wide string at offset " + entryPos + " is truncated");
+                    }
+                    ByteBuffer slice = data.duplicate();
+                    slice.position(pos + 2);
+                    slice.limit(pos + 2 + (chars * 2));
+                    value = UTF16.decode(slice).toString();
+                    pos += 2 + (chars * 2);
+                    break;
+                default:
+                    throw new VdfParseException("Unknown entry type " + type + " at offset " + entryPos);
+            }
+            handler.attribute(key, value);
+        }
+        if (depth > 0) {
+            throw new VdfParseException("Data ended inside a block");
+        }
+        logger.debug("Read {} bytes of binary data", pos);
+        return pos;
+    }
+
+    private static String unsignedToString(long val) {
+        if (val >= 0) {
+            return Long.toString(val);
+        }
+        // Split off the lowest digit, so the rest fits in a signed long
+        long quotient = (val >>> 1) / 5;
+        long remainder = val - (quotient * 10);
+        return Long.toString(quotient) + remainder;
+    }
+    /**
+     * Reads a null-terminated string, storing it in {@link #lastString}.
+     * @param pos The position of the first character
+     * @return The position after the terminator
+     */
+    private int readString(int pos) throws VdfParseException {
+        final int limit = data.limit();
+        int end = pos;
+        boolean ascii = true;
+        while (true) {
+            if (end >= limit) {
+                throw new VdfParseException("Unterminated string at offset " + pos);
+            }
+            byte b = data.get(end);
+            if (b == 0) {
+                break;
+            } else if (b < 0) {
+                ascii = false;
+            }
+            end++;
+        }
+        final int len = end - pos;
+        if (ascii) {
+            if (len > scratch.length) {
+                scratch = new char[Math.max(len, scratch.length * 2)];
+            }
+            for (int i = 0; i < len; i++) {
+                scratch[i] = (char) data.get(pos + i);
+            }
+            lastString = new String(scratch, 0, len);
+        } else {
+            ByteBuffer slice = data.duplicate();
+            slice.position(pos);
+            slice.limit(end);
+            lastString = UTF8.decode(slice).toString();
+        }
+        return end + 1;
+    }
+}
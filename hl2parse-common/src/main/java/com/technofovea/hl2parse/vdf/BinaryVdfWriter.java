@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.vdf;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a tree in the binary KeyValues format, which can be read back with
+ * {@link BinaryVdfReader} far faster than the equivalent text can be parsed.
+ * This makes it suitable as a cache for text files which are loaded often.
+ *
+ * Since {@link VdfAttribute} values are strings, every attribute is written
+ * as a string entry. Within each block, attributes are written before child
+ * blocks, the same order used by {@link VdfNode#toString()}. Anonymous
+ * blocks are written with an empty name.
+ *
+ * @author Darien Hager
+ */
+public class BinaryVdfWriter {
+
+    private static final String CHARSET = "UTF-8";
+
+    private BinaryVdfWriter() {
+    }
+
+    /**
+     * Writes a tree to a file.
+     * @see #write(com.technofovea.hl2parse.vdf.VdfNode, java.io.OutputStream)
+     * @param node The node to write
+     * @param dest The file to create or replace
+     * @throws IOException If the file could not be written
+     */
+    public static void write(VdfNode node, File dest) throws IOException {
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(dest));
+        try {
+            write(node, os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Writes a tree to a stream. If the node is a {@link VdfRoot} then its
+     * contents are written as the top-level entries, otherwise the node
+     * itself is written as the only top-level block. The stream is not closed.
+     * @param node The node to write
+     * @param os The stream to write to
+     * @throws IOException If the stream could not be written
+     */
+    public static void write(VdfNode node, OutputStream os) throws IOException {
+        if (node instanceof VdfRoot) {
+            writeContents(node, os);
+        } else {
+            writeBlock(node, os);
+        }
+        os.write(BinaryVdfReader.TYPE_END);
+        os.flush();
+    }
+
+    private static void writeBlock(VdfNode node, OutputStream os) throws IOException {
+        os.write(BinaryVdfReader.TYPE_BLOCK);
+        writeString(node.getName(), os);
+        writeContents(node, os);
+        os.write(BinaryVdfReader.TYPE_END);
+    }
+
+    private static void writeContents(VdfNode node, OutputStream os) throws IOException {
+        for (VdfAttribute att : node.getAttributes()) {
+            os.write(BinaryVdfReader.TYPE_STRING);
+            writeString(att.getName(), os);
+            writeString(att.getValue(), os);
+        }
+        for (VdfNode child : node.getChildren()) {
+            writeBlock(child, os);
+        }
+    }
+
+    private static void writeString(String s, OutputStream os) throws IOException {
+        byte[] bytes = s.getBytes(CHARSET);
+        for (byte b : bytes) {
+            if (b == 0) {
+                throw new IOException("Strings containing null characters cannot be written: " + s);
+            }
+        }
+        os.write(bytes);
+        os.write(0);
+    }
+}
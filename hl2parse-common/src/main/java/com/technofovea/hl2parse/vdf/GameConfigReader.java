@@ -12,19 +12,13 @@
  */
 package com.technofovea.hl2parse.vdf;
 
-import com.technofovea.hl2parse.JxPathUtil;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import org.apache.commons.jxpath.JXPathContext;
-import org.apache.commons.jxpath.JXPathException;
-import org.apache.commons.jxpath.Pointer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,25 +44,16 @@ public class GameConfigReader {
         File vmfDir;
         File bspDir;
 
-        Game(JXPathContext relativeContext) {
-            relativeContext.getVariables().declareVariable("gamedir", KEY_GAMEDIR);
-            relativeContext.getVariables().declareVariable("hammeropts", NODE_HAMMER);
-            relativeContext.getVariables().declareVariable("mapformat", KEY_MAPFORMAT);
-            relativeContext.getVariables().declareVariable("vmfdir", KEY_MAPSRC);
-            relativeContext.getVariables().declareVariable("bspdir", KEY_MAPDEST);
-            relativeContext.getVariables().declareVariable("fgdprefix", PREFIX_FGDS);
-
-            name = (String) relativeContext.getValue("name");
-            gameDir = new File((String) relativeContext.getValue("attributes[custom:equals(name,$gamedir)]/value"));
-            mapFormat = Integer.parseInt((String) relativeContext.getValue("children[custom:equals(name,$hammeropts)]/attributes[custom:equals(name,$mapformat)]/value"));
-            vmfDir = new File((String) relativeContext.getValue("children[custom:equals(name,$hammeropts)]/attributes[custom:equals(name,$vmfdir)]/value"));
-            bspDir = new File((String) relativeContext.getValue("children[custom:equals(name,$hammeropts)]/attributes[custom:equals(name,$bspdir)]/value"));
+        Game(VdfNode gameNode) {
+            name = gameNode.getName();
+            gameDir = new File(PATH_GAMEDIR.selectValue(gameNode));
+            mapFormat = Integer.parseInt(PATH_MAPFORMAT.selectValue(gameNode));
+            vmfDir = new File(PATH_MAPSRC.selectValue(gameNode));
+            bspDir = new File(PATH_MAPDEST.selectValue(gameNode));
 
             // FGDs are tougher, since they may end in GameDataN where N is 0,1,2,etc.
-            Iterator<VdfAttribute> attrs = (Iterator<VdfAttribute>) relativeContext.iterate("children[custom:equals(name,$hammeropts)]/attributes[custom:startswith(name,$fgdprefix)]");
             SortedMap<Integer, String> fgdOrder = new TreeMap<Integer, String>();
-            while (attrs.hasNext()) {
-                VdfAttribute a = attrs.next();
+            for (VdfAttribute a : PATH_FGDS.selectAttributes(gameNode)) {
                 assert (a.getName().toLowerCase().startsWith(PREFIX_FGDS.toLowerCase()));
                 String numericPart = a.getName().substring(PREFIX_FGDS.length());
                 Integer intVal;
@@ -120,48 +105,39 @@ public class GameConfigReader {
     static final String KEY_MAPDEST = "BspDir";
     static final String PREFIX_FGDS = "GameData";
     static final String KEY_SDKVERSION = "SDKVersion";
+    private static final VdfPath PATH_GAMES = VdfPath.compile(ROOT_NODE + "/" + GAME_NODE + "/*");
+    private static final VdfPath PATH_SDKVERSION = VdfPath.compile(ROOT_NODE + "/@" + KEY_SDKVERSION);
+    private static final VdfPath PATH_GAMEDIR = VdfPath.compile("@" + KEY_GAMEDIR);
+    private static final VdfPath PATH_MAPFORMAT = VdfPath.compile(NODE_HAMMER + "/@" + KEY_MAPFORMAT);
+    private static final VdfPath PATH_MAPSRC = VdfPath.compile(NODE_HAMMER + "/@" + KEY_MAPSRC);
+    private static final VdfPath PATH_MAPDEST = VdfPath.compile(NODE_HAMMER + "/@" + KEY_MAPDEST);
+    private static final VdfPath PATH_FGDS = VdfPath.compile(NODE_HAMMER + "/@" + PREFIX_FGDS + "*");
 
     private static final Logger logger = LoggerFactory.getLogger(GameConfigReader.class);
     VdfRoot root;
-    JXPathContext context;
     Map<String, Game> games = new HashMap<String, Game>();
     int sdkVersion;
 
     public GameConfigReader(VdfRoot rootNode) {
         root = rootNode;
-        context = JXPathContext.newContext(root);
-        JxPathUtil.addFunctions(context);
-
-        context.getVariables().declareVariable("rootname", ROOT_NODE);
-        context.getVariables().declareVariable("gamegroup", GAME_NODE);
-        context.getVariables().declareVariable("sdkver", KEY_SDKVERSION);
 
         logger.trace("Checking file for defined games...");
-        for (Pointer p :  getGamePointers()) {
-            JXPathContext relativeContext = context.getRelativeContext(p);
-            Game g = new Game(relativeContext);
+        for (VdfNode gameNode : PATH_GAMES.selectNodes(root)) {
+            Game g = new Game(gameNode);
             logger.trace("Found game: {}",g.getName());
             games.put(g.getName(), g);
         }
 
+        String version = PATH_SDKVERSION.selectValue(root);
         try{
-            sdkVersion = new Integer((String) context.getValue("children[custom:equals(name,$rootname)]/attributes[custom:equals(name,$sdkver)]/value"));
-        }catch(JXPathException jex){
-            logger.warn("Unable to determine SDK version in game-config",jex);
+            sdkVersion = Integer.parseInt(version);
+        }catch(NumberFormatException ex){
+            logger.warn("Unable to determine SDK version in game-config, found: {}", version);
             sdkVersion = -1;
         }
 
     }
 
-    List<Pointer> getGamePointers() {
-        List<Pointer> ret = new ArrayList<Pointer>();
-        Iterator<Pointer> iter = (Iterator<Pointer>) context.iteratePointers("children[custom:equals(name,$rootname)]/children[custom:equals(name,$gamegroup)]/children[*]");
-        while (iter.hasNext()) {
-            ret.add(iter.next());
-        }
-        return ret;
-    }
-
     public Map<String, Game> getGames() {
         // Return a copy
         return new HashMap<String, Game>(games);
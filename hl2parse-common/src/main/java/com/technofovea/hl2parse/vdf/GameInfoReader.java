@@ -12,12 +12,9 @@
  */
 package com.technofovea.hl2parse.vdf;
 
-import com.technofovea.hl2parse.JxPathUtil;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import org.apache.commons.jxpath.JXPathContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,16 +30,16 @@ public class GameInfoReader {
     public static final String DEFAULT_FILENAME = "gameinfo.txt";
     
     private static final Logger logger = LoggerFactory.getLogger(GameInfoReader.class);
+    private static final VdfPath PATH_GAME = VdfPath.compile("GameInfo/@game");
+    private static final VdfPath PATH_APPID = VdfPath.compile("GameInfo/FileSystem/@SteamAppId");
+    private static final VdfPath PATH_SEARCHPATHS = VdfPath.compile("GameInfo/FileSystem/SearchPaths/@game");
+    private static final VdfPath PATH_ADDITIONAL_IDS = VdfPath.compile("GameInfo/FileSystem/@AdditionalContentId");
     VdfRoot root;
-    JXPathContext context;
     File sourceFile;
 
     public GameInfoReader(VdfRoot rootNode, File sourceFile) {
         this.sourceFile = sourceFile;
         root = rootNode;
-        context = JXPathContext.newContext(root);
-        JxPathUtil.addFunctions(context);
-
     }
 
     /**
@@ -55,21 +52,16 @@ public class GameInfoReader {
     }
 
     public String getGameName() {
-        return (String) context.getValue("children[custom:equals(name,'GameInfo')]/attributes[custom:equals(name,'game')]/value");
+        return PATH_GAME.selectValue(root);
     }
 
     public int getSteamAppId() {
-        String id = (String) context.getValue("children[custom:equals(name,'GameInfo')]/children[custom:equals(name,'FileSystem')]/attributes[custom:equals(name,'SteamAppId')]/value");
+        String id = PATH_APPID.selectValue(root);
         return Integer.parseInt(id);
     }
 
     public List<String> getSearchPaths() {
-        List<String> ret = new ArrayList<String>();
-        Iterator<String> iter = (Iterator<String>) context.iterate("children[custom:equals(name,'GameInfo')]/children[custom:equals(name,'FileSystem')]/children[custom:equals(name,'SearchPaths')]/attributes[custom:equals(name,'game')]/value");
-        while (iter.hasNext()) {
-            ret.add(iter.next());
-        }
-        return ret;
+        return PATH_SEARCHPATHS.selectValues(root);
     }
     /*
     static List<String> dereferenceSearchPaths(List<String> paths, File gameInfoDirectory, File appIdDirectory ){
@@ -79,9 +71,8 @@ public class GameInfoReader {
 
     public List<Integer> getAdditionalIds() {
         List<Integer> ret = new ArrayList<Integer>();
-        Iterator<String> iter = (Iterator<String>) context.iterate("children[custom:equals(name,'GameInfo')]/children[custom:equals(name,'FileSystem')]/attributes[custom:equals(name,'AdditionalContentId')]/value");
-        while (iter.hasNext()) {
-            ret.add(Integer.parseInt(iter.next()));
+        for (String id : PATH_ADDITIONAL_IDS.selectValues(root)) {
+            ret.add(Integer.parseInt(id));
         }
         return ret;
     }
@@ -17,13 +17,11 @@ import com.technofovea.hl2parse.xml.MaterialRefList;
 import com.technofovea.hl2parse.xml.MaterialReference;
 import java.io.InputStream;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
-import org.apache.commons.jxpath.JXPathContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,22 +47,16 @@ public class MaterialReader {
     }
     private static final Logger logger = LoggerFactory.getLogger(MaterialReader.class);
     static final String PATCH_INCLUDE = "include";
+    private static final VdfPath PATH_ALL_ATTRIBUTES = VdfPath.compile("**/@*");
     VdfRoot root;
-    JXPathContext context;
     MaterialRefList props;
     Set<String> textures = new HashSet<String>();
     Set<String> materials = new HashSet<String>();
 
     public MaterialReader(VdfRoot rootNode, MaterialRefList props) {
         root = rootNode;
-        context = JXPathContext.newContext(root);
-        JxPathUtil.addFunctions(context);
 
-
-        Iterator<VdfAttribute> allAttribs = context.iterate("//attributes");
-
-        while (allAttribs.hasNext()) {
-            VdfAttribute attrPair = allAttribs.next();
+        for (VdfAttribute attrPair : PATH_ALL_ATTRIBUTES.selectAttributes(root)) {
             String key = attrPair.getName();
             // Strip trailing "2"s for blend texture variations
             if (key.endsWith("2")) {
@@ -12,12 +12,8 @@
  */
 package com.technofovea.hl2parse.vdf;
 
-
-import com.technofovea.hl2parse.JxPathUtil;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import org.apache.commons.jxpath.JXPathContext;
 
 /**
  *
@@ -28,22 +24,20 @@ public class ParticleManifestReader {
 
     private static final String CACHE_MARK = "!";
     private static final String KEY_NAME = "file";
+    private static final VdfPath PATH_FILES = VdfPath.compile("@" + KEY_NAME);
     private VdfRoot root;
-    private JXPathContext context;
 
     public ParticleManifestReader(VdfRoot rootNode) {
         root = rootNode;
-        context = JXPathContext.newContext(root);
-        JxPathUtil.addFunctions(context);
-
-        context.getVariables().declareVariable("filekey", KEY_NAME);
     }
 
     public List<String> getPcfs() {
-        Iterator scapes = context.iterate("children[1]/attributes[custom:equals(name,$filekey)]/value");
         List<String> ret = new ArrayList<String>();
-        while (scapes.hasNext()) {
-            String path = (String) scapes.next();
+        if (root.getChildren().isEmpty()) {
+            return ret;
+        }
+        // Only the first block is used
+        for (String path : PATH_FILES.selectValues(root.getChildren().get(0))) {
             if (path.startsWith(CACHE_MARK)) {
                 path = path.substring(CACHE_MARK.length());
             }
@@ -12,13 +12,10 @@
  */
 package com.technofovea.hl2parse.vdf;
 
-import com.technofovea.hl2parse.JxPathUtil;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import org.apache.commons.jxpath.JXPathContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,35 +26,24 @@ import org.slf4j.LoggerFactory;
 public class PropDataReader {
 
     private static final Logger logger = LoggerFactory.getLogger(PropDataReader.class);
+    private static final VdfPath PATH_RAGDOLLS = VdfPath.compile("break/@ragdoll");
+    private static final VdfPath PATH_GIBS = VdfPath.compile("break/@model");
     VdfRoot root;
-    JXPathContext context;
 
     public PropDataReader(VdfRoot rootNode) {
         root = rootNode;
-        context = JXPathContext.newContext(root);
-        JxPathUtil.addFunctions(context);
     }
 
     public List<String> getRagdollModels() {
-        Iterator<String> allSnds = context.iterate("children[custom:equals(name,'break')]/attributes[custom:equals(name,'ragdoll')]/value");
-
         List<String> ret = new ArrayList<String>();
-        while (allSnds.hasNext()) {
-            String path = allSnds.next();
+        for (String path : PATH_RAGDOLLS.selectValues(root)) {
             ret.add("models/" + path + ".mdl");
         }
         return ret;
     }
 
     public List<String> getRigidGibModels() {
-        Iterator<String> allSnds = context.iterate("children[custom:equals(name,'break')]/attributes[custom:equals(name,'model')]/value");
-
-        List<String> ret = new ArrayList<String>();
-        while (allSnds.hasNext()) {
-            String path = allSnds.next();
-            ret.add(path);
-        }
-        return ret;
+        return PATH_GIBS.selectValues(root);
     }
 
     public Set<String> getAllGibs() {
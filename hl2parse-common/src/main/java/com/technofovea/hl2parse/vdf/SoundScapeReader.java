@@ -13,11 +13,10 @@
 package com.technofovea.hl2parse.vdf;
 
 
-import com.technofovea.hl2parse.JxPathUtil;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import org.apache.commons.jxpath.JXPathContext;
 
 /**
  *
@@ -27,29 +26,51 @@ public class SoundScapeReader {
 
     private static final String KEY_WAV = "wave";
 
+    private static final VdfPath PATH_WAVS = VdfPath.compile("**/@" + KEY_WAV);
+
     private VdfNode root;
-    private JXPathContext context;
     public SoundScapeReader(VdfRoot rootNode) {
         root = rootNode;
-        context = JXPathContext.newContext(root);
-        JxPathUtil.addFunctions(context);
-        context.getVariables().declareVariable("wavkey",KEY_WAV);
     }
     public List<String> getSoundFiles(){
-        Iterator<String> allSnds = context.iterate("//attributes[custom:equals(name,$wavkey)]/value");
-
         List<String> ret = new ArrayList<String>();
-        while (allSnds.hasNext()) {
-            String path = allSnds.next();
+        for (String path : PATH_WAVS.selectValues(root)) {
             ret.add("sound/"+path);
         }
         return ret;
     }
+
+    /**
+     * Finds the same sound files as {@link #getSoundFiles()}, but directly
+     * from the file's parse events, without building a tree.
+     * @param soundscapeFile The soundscape file to read
+     * @return A list of sound paths, relative to the game directory
+     * @throws IOException If the file could not be read
+     * @throws VdfParseException If the file could not be parsed
+     */
+    public static List<String> readSoundFiles(File soundscapeFile) throws IOException, VdfParseException {
+        final List<String> ret = new ArrayList<String>();
+        VdfParser.parse(soundscapeFile, new VdfParser.Handler() {
+
+            public void startBlock(String name) {
+            }
+
+            public void attribute(String key, String value) {
+                if (KEY_WAV.equalsIgnoreCase(key)) {
+                    ret.add("sound/" + value);
+                }
+            }
+
+            public void endBlock() {
+            }
+        });
+        return ret;
+    }
+
     public List<String> getSoundscapeNames(){
-        Iterator scapes = context.iterate("/children/name");
         List<String> ret = new ArrayList<String>();
-        while (scapes.hasNext()) {
-            ret.add((String) scapes.next());
+        for (VdfNode scape : root.getChildren()) {
+            ret.add(scape.getName());
         }
         return ret;
 
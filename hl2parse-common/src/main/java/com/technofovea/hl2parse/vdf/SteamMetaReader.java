@@ -12,35 +12,20 @@
  */
 package com.technofovea.hl2parse.vdf;
 
-import com.technofovea.hl2parse.*;
-import com.technofovea.hl2parse.JxPathUtil;
-import com.technofovea.hl2parse.vdf.VdfAttribute;
-import com.technofovea.hl2parse.vdf.VdfRoot;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-import org.apache.commons.jxpath.JXPathContext;
-
 /**
  *
  * @author Darien Hager
  */
 public class SteamMetaReader {
 
+    private static final VdfPath PATH_AUTOLOGON = VdfPath.compile("SteamAppData/@AutoLoginUser");
     VdfRoot root;
-    JXPathContext context;
-
-    
 
     public SteamMetaReader(VdfRoot rootNode) {
         root = rootNode;
-        context = JXPathContext.newContext(root);
-        JxPathUtil.addFunctions(context);
-
-
     }
 
     public String getAutoLogon() {
-        return (String) context.getValue("children[custom:equals(name,'SteamAppData')]/attributes[custom:equals(name,'AutoLoginUser')]/value");
+        return PATH_AUTOLOGON.selectValue(root);
     }
 }
@@ -12,13 +12,22 @@
  */
 package com.technofovea.hl2parse.vdf;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Used for parsing Valve's various similarly-formatted files. For convenience, many
  * accessors on this class throw exceptions since calling them implicitly signifies
  * you expect the data to be arranged a certain way.
+ *
+ * A tree may be read by several threads at once, including the name lookups
+ * which build indexes on first use. Changing a tree while other threads
+ * read it is not supported.
  * 
  * @author Darien Hager
  */
@@ -27,6 +36,30 @@ public class VdfNode {
     private String name = "";
     private List<VdfNode> children = new ArrayList<VdfNode>();
     private List<VdfAttribute> attributes = new ArrayList<VdfAttribute>();
+    /**
+     * Children by lower-cased name, in their original order. Built on the
+     * first lookup, and discarded whenever the children change. Each index
+     * is published complete, so concurrent readers never see one half-built.
+     */
+    private volatile Index<VdfNode> childIndex = null;
+    /**
+     * Attributes by lower-cased name, see {@link #childIndex}
+     */
+    private volatile Index<VdfAttribute> attributeIndex = null;
+
+    /**
+     * A name index, along with the size of the list it was built from.
+     */
+    private static final class Index<T> {
+
+        final Map<String, List<T>> map;
+        final int size;
+
+        Index(Map<String, List<T>> map, int size) {
+            this.map = map;
+            this.size = size;
+        }
+    }
 
     public VdfNode(){
     }
@@ -35,6 +68,24 @@ public class VdfNode {
 
 
 
+    /**
+     * Layouts for serializing a tree as text
+     */
+    public enum Style {
+
+        /**
+         * Keys and values separated by a fixed gap
+         */
+        PLAIN,
+        /**
+         * Values within each block aligned with each other
+         */
+        PRETTY
+    }
+    private static final String TABS = "\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t";
+    private static final String SPACES = "                                ";
+    private static final String GAP = "    ";
+
     @Override
     public String toString() {
         return toString(0, false);
@@ -46,75 +97,279 @@ public class VdfNode {
 
     protected String toString(int indentLevel, boolean pretty) {
         StringBuilder sb = new StringBuilder();
+        try {
+            write(sb, indentLevel, pretty ? Style.PRETTY : Style.PLAIN);
+        } catch (IOException ex) {
+            // StringBuilder never throws
+            throw new IllegalStateException(ex);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes this node and everything beneath it as KeyValues text, in a
+     * single pass and without building up intermediate strings. This is the
+     * same text returned by {@link #toString()} or {@link #toPrettyString()},
+     * except that those never reject text.
+     *
+     * Quoted strings have no escape sequences in this format, but a
+     * backslash before a quote stops it ending the string. Text is written
+     * exactly as it is, so a name or value containing a quote without a
+     * backslash before it, or ending with a backslash, cannot be written.
+     * The whole tree is checked before anything is written, so nothing
+     * reaches the destination if it is rejected.
+     *
+     * @param out The destination, such as a buffered file writer
+     * @param style The layout to use
+     * @throws IOException If the destination could not be written to
+     * @throws IllegalArgumentException If a name or value is null, or cannot
+     * be written in a form which {@link VdfParser} would read back unchanged
+     */
+    public void writeTo(Appendable out, Style style) throws IOException {
+        validate(this);
+        write(out, 0, style);
+    }
 
-        StringBuilder tabs = new StringBuilder();
-        for (int i = 0; i < indentLevel; i++) {
-            tabs.append("\t");
+    /**
+     * Checks that every name and value in a tree can be written by
+     * {@link #writeTo(java.lang.Appendable, com.technofovea.hl2parse.vdf.VdfNode.Style)}.
+     */
+    private static void validate(VdfNode node) {
+        if (node.hasName()) {
+            checkWritable(node.getName());
         }
+        for (VdfAttribute att : node.attributes) {
+            checkWritable(att.getName());
+            checkWritable(att.getValue());
+        }
+        for (VdfNode child : node.children) {
+            validate(child);
+        }
+    }
+
+    private static void checkWritable(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Cannot write a null name or value");
+        }
+        // The parser keeps quoted text as-is, so there is nothing to escape with
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"' && (i == 0 || text.charAt(i - 1) != '\\')) {
+                throw new IllegalArgumentException("Cannot write a bare quote in: " + text);
+            }
+        }
+        if (text.endsWith("\\")) {
+            throw new IllegalArgumentException("Cannot write a trailing backslash in: " + text);
+        }
+    }
+
+    protected void write(Appendable out, int indentLevel, Style style) throws IOException {
         if (hasName()) {
-            sb.append(tabs);
-            sb.append("\"");
-            sb.append(getName());
-            sb.append("\"");
-            sb.append("\n");
+            indent(out, indentLevel);
+            writeQuoted(out, getName());
+            out.append('\n');
         }
-        sb.append(tabs);
-        sb.append("{\n");
+        indent(out, indentLevel);
+        out.append("{\n");
 
         int maxKeyLen = 0;
-        if (pretty) {
-            // Pad everything so the key/value pairs are easy to read, so we
-            // need a first pass to calculate lengths            
+        if (style == Style.PRETTY) {
+            // Pad everything so the key/value pairs are easy to read
             for (VdfAttribute att : attributes) {
-                if (att.getName().length() > maxKeyLen) {
-                    maxKeyLen = att.getName().length();
-                }
+                maxKeyLen = Math.max(maxKeyLen, att.getName().length());
             }
         }
         for (VdfAttribute att : attributes) {
-
-            sb.append(tabs);
-            sb.append("\t");
-            sb.append("\"");
-            sb.append(att.getName());
-            sb.append("\"");
-            if (pretty) {
-                sb.append("    ");
-                for (int i = 0; i < maxKeyLen - att.getName().length(); i++) {
-                    sb.append(" ");
-                }
-            } else {
-                sb.append("    ");
+            indent(out, indentLevel + 1);
+            writeQuoted(out, att.getName());
+            out.append(GAP);
+            if (style == Style.PRETTY) {
+                repeat(out, SPACES, maxKeyLen - att.getName().length());
             }
-            sb.append("\"");
-            sb.append(att.getValue());
-            sb.append("\"");
-
-            sb.append("\n");
-
+            writeQuoted(out, att.getValue());
+            out.append('\n');
         }
         for (VdfNode vn : children) {
-            String childString = vn.toString(indentLevel + 1, pretty);
-            sb.append(childString);
+            vn.write(out, indentLevel + 1, style);
         }
-        sb.append(tabs);
-        sb.append("}\n");
-        return sb.toString();
+        indent(out, indentLevel);
+        out.append("}\n");
+    }
+
+    private static void indent(Appendable out, int level) throws IOException {
+        repeat(out, TABS, level);
+    }
+
+    /**
+     * Appends the first character of a string of identical characters
+     * a number of times, in chunks.
+     */
+    private static void repeat(Appendable out, String chars, int count) throws IOException {
+        while (count > 0) {
+            int chunk = Math.min(count, chars.length());
+            out.append(chars, 0, chunk);
+            count -= chunk;
+        }
+    }
+
+    private static void writeQuoted(Appendable out, String text) throws IOException {
+        out.append('"');
+        out.append(text);
+        out.append('"');
     }
 
     public boolean addChild(VdfNode n) {
         if (n == this) {
             return false;
         }
+        childIndex = null;
         return children.add(n);
     }
 
     public void addAttribute(String key, String value) {        
         VdfAttribute va = new VdfAttribute(key, value);
+        attributeIndex = null;
         attributes.add(va);
         return;
     }
 
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static <T> void addToIndex(Map<String, List<T>> index, String key, T item) {
+        List<T> existing = index.get(key);
+        if (existing == null) {
+            // Most keys are unique, so avoid a full list until one is repeated
+            index.put(key, Collections.singletonList(item));
+        } else {
+            if (existing.size() == 1) {
+                existing = new ArrayList<T>(existing);
+                index.put(key, existing);
+            }
+            existing.add(item);
+        }
+    }
+
+    private Map<String, List<VdfNode>> getChildIndex() {
+        Index<VdfNode> index = childIndex;
+        // The lists are modifiable, so also check that nothing was added behind our back
+        if (index == null || index.size != children.size()) {
+            Map<String, List<VdfNode>> map = new HashMap<String, List<VdfNode>>();
+            for (VdfNode child : children) {
+                addToIndex(map, fold(child.getName()), child);
+            }
+            index = new Index<VdfNode>(map, children.size());
+            childIndex = index;
+        }
+        return index.map;
+    }
+
+    private Map<String, List<VdfAttribute>> getAttributeIndex() {
+        Index<VdfAttribute> index = attributeIndex;
+        if (index == null || index.size != attributes.size()) {
+            Map<String, List<VdfAttribute>> map = new HashMap<String, List<VdfAttribute>>();
+            for (VdfAttribute att : attributes) {
+                addToIndex(map, fold(att.getName()), att);
+            }
+            index = new Index<VdfAttribute>(map, attributes.size());
+            attributeIndex = index;
+        }
+        return index.map;
+    }
+
+    /**
+     * Finds the first child block with the given name, ignoring case. The
+     * first lookup indexes the children, so that later ones take constant
+     * time. If children are renamed after a lookup, call
+     * {@link #clearIndex()}.
+     * @param name The name to look for
+     * @return The first matching child, or null if there are none
+     */
+    public VdfNode getChild(String name) {
+        List<VdfNode> found = getChildIndex().get(fold(name));
+        if (found == null) {
+            return null;
+        }
+        return found.get(0);
+    }
+
+    /**
+     * Finds all child blocks with the given name, ignoring case.
+     * @see #getChild(java.lang.String)
+     * @param name The name to look for
+     * @return An unmodifiable list of matching children, in their original
+     * order. It may be empty.
+     */
+    public List<VdfNode> getChildren(String name) {
+        List<VdfNode> found = getChildIndex().get(fold(name));
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Finds the first attribute with the given key, ignoring case.
+     * @see #getChild(java.lang.String)
+     * @param name The key to look for
+     * @return The first matching attribute, or null if there are none
+     */
+    public VdfAttribute getAttribute(String name) {
+        List<VdfAttribute> found = getAttributeIndex().get(fold(name));
+        if (found == null) {
+            return null;
+        }
+        return found.get(0);
+    }
+
+    /**
+     * Finds all attributes with the given key, ignoring case.
+     * @see #getChild(java.lang.String)
+     * @param name The key to look for
+     * @return An unmodifiable list of matching attributes, in their original
+     * order. It may be empty.
+     */
+    public List<VdfAttribute> getAttributes(String name) {
+        List<VdfAttribute> found = getAttributeIndex().get(fold(name));
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Follows a path of child names, separated by slashes, such as
+     * "GameInfo/FileSystem/SearchPaths". At each step the first matching
+     * child is used, ignoring case.
+     * @param path The path to follow, relative to this node
+     * @return The node at the end of the path, or null if there is none
+     */
+    public VdfNode getPath(String path) {
+        VdfNode current = this;
+        int start = 0;
+        while (current != null && start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                current = current.getChild(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return current;
+    }
+
+    /**
+     * Discards the lookup indexes, so that they will be rebuilt. This is
+     * only needed if children or attributes are renamed, or replaced within
+     * the lists, after a lookup has been made.
+     */
+    public void clearIndex() {
+        childIndex = null;
+        attributeIndex = null;
+    }
+
     public void setName(String s) {
         name = s;
     }
@@ -0,0 +1,401 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.vdf;
+
+import com.technofovea.hl2parse.StringPool;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fast parser for the loosely-defined KeyValues text format, which works
+ * directly on the raw bytes of a file rather than through a lexer and token
+ * stream. It accepts the same "sloppy" dialect as the grammar-based
+ * <code>SloppyParser</code> and produces the same tree:
+ *
+ * <ul>
+ * <li>Keys, values and block names may be quoted or bare. Bare tokens end at
+ * whitespace or any of <code>"{}[]():=</code>.</li>
+ * <li>Quoted strings have no escapes, except that <code>\"</code> does not
+ * end the string. The text is kept exactly as written.</li>
+ * <li><code>//</code> begins a comment which runs to the end of the line.</li>
+ * <li>Outside of a quoted string, a null byte marks the end of the data.</li>
+ * </ul>
+ *
+ * Text is read as UTF-8, ignoring any byte-order mark. UTF-16 data (with a
+ * byte-order mark) is converted to UTF-8 before parsing. Keys and block names
+ * are passed through a {@link StringPool}. A parser should only be used by
+ * one thread at a time.
+ *
+ * @author Darien Hager
+ */
+public class VdfParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(VdfParser.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives blocks and attributes from the parser, in the order they
+     * appear. Every call to {@link #startBlock(java.lang.String)} is matched
+     * by a later call to {@link #endBlock()}.
+     */
+    public interface Handler {
+
+        /**
+         * Called when the opening brace of a block is found
+         * @param name The name of the block, or null if it has none
+         * @throws VdfParseException To abort parsing
+         */
+        public void startBlock(String name) throws VdfParseException;
+
+        /**
+         * Called for each key/value pair within the current block. Keys may
+         * be repeated.
+         * @param key The key, exactly as written
+         * @param value The value, exactly as written
+         * @throws VdfParseException To abort parsing
+         */
+        public void attribute(String key, String value) throws VdfParseException;
+
+        /**
+         * Called when the closing brace of a block is found
+         * @throws VdfParseException To abort parsing
+         */
+        public void endBlock() throws VdfParseException;
+    }
+    private final ByteBuffer data;
+    private char[] scratch = new char[256];
+    private StringPool pool = StringPool.getShared();
+    /**
+     * The text of the token found by the last call to {@link #readToken(int)}
+     */
+    private String lastToken;
+
+    /**
+     * Creates a new parser over the given data.
+     * @param data The text, from the current position to the limit. It is
+     * not modified.
+     */
+    public VdfParser(ByteBuffer data) {
+        this.data = convertUtf16(data.slice());
+    }
+
+    /**
+     * Creates a new parser over the given data.
+     * @param data The text. The array is not copied, and should not be
+     * modified while parsing.
+     */
+    public VdfParser(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Sets the pool used for keys and block names. By default this is
+     * {@link StringPool#getShared()} at the time the parser was created.
+     * @param pool The pool to use
+     */
+    public void setStringPool(StringPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool may not be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Parses an entire file, which is memory-mapped rather than read.
+     * @param file The file to parse
+     * @return The parsed data
+     * @throws IOException If the file could not be read
+     * @throws VdfParseException If the data is malformed
+     */
+    public static VdfRoot parse(File file) throws IOException, VdfParseException {
+        return new VdfParser(map(file)).parse();
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel chan = raf.getChannel();
+            return chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+        } finally {
+            // The mapping remains valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Parses an entire file, passing events to a handler.
+     * @see #parse(com.technofovea.hl2parse.vdf.VdfParser.Handler)
+     * @param file The file to parse
+     * @param handler The handler to receive events
+     * @throws IOException If the file could not be read
+     * @throws VdfParseException If the data is malformed, or the handler aborted
+     */
+    public static void parse(File file, Handler handler) throws IOException, VdfParseException {
+        new VdfParser(map(file)).parse(handler);
+    }
+
+    /**
+     * Reads and parses everything from a stream. The stream is not closed.
+     * @param is The stream to read
+     * @return The parsed data
+     * @throws IOException If the stream could not be read
+     * @throws VdfParseException If the data is malformed
+     */
+    public static VdfRoot parse(InputStream is) throws IOException, VdfParseException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) != -1) {
+            bytes.write(buf, 0, read);
+        }
+        return new VdfParser(bytes.toByteArray()).parse();
+    }
+
+    /**
+     * Parses text which is already in memory.
+     * @param text The text to parse
+     * @return The parsed data
+     * @throws VdfParseException If the data is malformed
+     */
+    public static VdfRoot parse(String text) throws VdfParseException {
+        return new VdfParser(UTF8.encode(text)).parse();
+    }
+
+    /**
+     * If the data starts with a UTF-16 byte-order mark, re-encodes it as UTF-8.
+     */
+    private static ByteBuffer convertUtf16(ByteBuffer buf) {
+        if (buf.remaining() < 2) {
+            return buf;
+        }
+        final int b0 = buf.get(0) & 0xFF;
+        final int b1 = buf.get(1) & 0xFF;
+        if ((b0 == 0xFF && b1 == 0xFE) || (b0 == 0xFE && b1 == 0xFF)) {
+            logger.debug("Converting UTF-16 data to UTF-8");
+            // The UTF-16 decoder uses the byte-order mark, then discards it
+            return UTF8.encode(Charset.forName("UTF-16").decode(buf.duplicate()));
+        }
+        return buf;
+    }
+
+    /**
+     * Parses all of the data into a tree.
+     * @return The top-level blocks, as children of a new root
+     * @throws VdfParseException If the data is malformed
+     */
+    public VdfRoot parse() throws VdfParseException {
+        VdfTreeBuilder builder = new VdfTreeBuilder();
+        parse(builder);
+        return builder.getRoot();
+    }
+
+    /**
+     * Parses all of the data, reporting each block and attribute to a
+     * handler as soon as it is read. Nothing is retained by the parser, so
+     * data of any size can be processed in constant memory.
+     * @param handler The handler to receive events
+     * @throws VdfParseException If the data is malformed, or the handler aborted
+     */
+    public void parse(Handler handler) throws VdfParseException {
+        int depth = 0;
+        int pos = skipByteOrderMark();
+        while (true) {
+            pos = skipSpace(pos);
+            if (atEnd(pos)) {
+                if (depth > 0) {
+                    throw error("Data ended inside a block", pos);
+                }
+                break;
+            }
+            final byte b = data.get(pos);
+            if (b == '}') {
+                if (depth == 0) {
+                    throw error("Unexpected '}'", pos);
+                }
+                depth--;
+                pos++;
+                handler.endBlock();
+                continue;
+            } else if (b == '{') {
+                depth++;
+                pos++;
+                handler.startBlock(null);
+                continue;
+            }
+            pos = readToken(pos);
+            final String key = pool.intern(lastToken);
+
+            pos = skipSpace(pos);
+            if (!atEnd(pos) && data.get(pos) == '{') {
+                depth++;
+                pos++;
+                handler.startBlock(key);
+                continue;
+            }
+            if (depth == 0) {
+                throw error("Expected '{' after block name '" + key + "'", pos);
+            }
+            if (atEnd(pos) || data.get(pos) == '}') {
+                throw error("Key '" + key + "' has no value", pos);
+            }
+            pos = readToken(pos);
+            handler.attribute(key, lastToken);
+        }
+    }
+
+    private int skipByteOrderMark() {
+        if (data.limit() >= 3
+                && (data.get(0) & 0xFF) == 0xEF
+                && (data.get(1) & 0xFF) == 0xBB
+                && (data.get(2) & 0xFF) == 0xBF) {
+            return 3;
+        }
+        return 0;
+    }
+
+    private boolean atEnd(int pos) {
+        return pos >= data.limit() || data.get(pos) == 0;
+    }
+
+    private static boolean isSpace(byte b) {
+        // Control characters count as whitespace, but null ends the data
+        return b != 0 && (b & 0xFF) <= ' ';
+    }
+
+    /**
+     * Characters which may not appear in a bare token
+     */
+    private static boolean isDelimiter(byte b) {
+        switch (b) {
+            case '"':
+            case '{':
+            case '}':
+            case '[':
+            case ']':
+            case '(':
+            case ')':
+            case ':':
+            case '=':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isCommentStart(int pos) {
+        return data.get(pos) == '/' && pos + 1 < data.limit() && data.get(pos + 1) == '/';
+    }
+
+    private int skipSpace(int pos) {
+        final int limit = data.limit();
+        while (pos < limit) {
+            byte b = data.get(pos);
+            if (isSpace(b)) {
+                pos++;
+            } else if (isCommentStart(pos)) {
+                while (pos < limit && data.get(pos) != '\n' && data.get(pos) != 0) {
+                    pos++;
+                }
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Reads a quoted or bare token, storing it in {@link #lastToken}.
+     * @param pos The position of the first character
+     * @return The position after the token
+     */
+    private int readToken(int pos) throws VdfParseException {
+        final int limit = data.limit();
+        int start;
+        int end;
+        int next;
+        final byte first = data.get(pos);
+        if (first == '"') {
+            start = pos + 1;
+            end = start;
+            while (true) {
+                if (end >= limit) {
+                    throw error("Data ended inside a quoted string", pos);
+                }
+                final byte b = data.get(end);
+                if (b == '"') {
+                    break;
+                } else if (b == '\\' && end + 1 < limit && data.get(end + 1) == '"') {
+                    end += 2;
+                } else {
+                    end++;
+                }
+            }
+            next = end + 1;
+        } else {
+            if (isDelimiter(first)) {
+                throw error("Unexpected '" + (char) first + "'", pos);
+            }
+            start = pos;
+            end = pos;
+            while (end < limit) {
+                byte b = data.get(end);
+                if (b == 0 || isSpace(b) || isDelimiter(b) || isCommentStart(end)) {
+                    break;
+                }
+                end++;
+            }
+            next = end;
+        }
+        lastToken = decode(start, end - start);
+        return next;
+    }
+
+    /**
+     * Converts a run of bytes to a string, without going through a charset
+     * decoder when they are all ASCII.
+     */
+    private String decode(int start, int len) {
+        if (len > scratch.length) {
+            scratch = new char[Math.max(len, scratch.length * 2)];
+        }
+        for (int i = 0; i < len; i++) {
+            byte b = data.get(start + i);
+            if (b < 0) {
+                ByteBuffer slice = data.duplicate();
+                slice.limit(start + len);
+                slice.position(start);
+                return UTF8.decode(slice).toString();
+            }
+            scratch[i] = (char) b;
+        }
+        return new String(scratch, 0, len);
+    }
+
+    private VdfParseException error(String message, int pos) {
+        int line = 1;
+        for (int i = 0; i < pos && i < data.limit(); i++) {
+            if (data.get(i) == '\n') {
+                line++;
+            }
+        }
+        return new VdfParseException(message + " on line " + line);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.vdf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A pre-compiled query over a tree of {@link VdfNode} objects. Expressions
+ * are a simplified form of XPath, and all names are matched without regard
+ * to case:
+ *
+ * <ul>
+ * <li><code>GameInfo/FileSystem</code> selects every child named
+ * "FileSystem" of every child named "GameInfo".</li>
+ * <li><code>*</code> selects all children, and <code>**</code> selects a
+ * node along with all of its descendants.</li>
+ * <li>A final step beginning with <code>@</code> selects attributes instead
+ * of nodes: <code>@key</code> by name, <code>@*</code> for all of them, or
+ * <code>@prefix*</code> for those whose names start with a prefix.</li>
+ * </ul>
+ *
+ * Results are always in document order. A compiled path is immutable and
+ * may be shared between threads, although the trees it is evaluated on may
+ * not be.
+ *
+ * @author Darien Hager
+ */
+public class VdfPath {
+
+    private static final String WILDCARD = "*";
+    private static final String DESCENDANTS = "**";
+    private static final String ATTRIBUTE_MARK = "@";
+    private final String expression;
+    private final String[] steps;
+    /**
+     * The attribute selector without its marker, or null if this path selects nodes
+     */
+    private final String attributeStep;
+
+    private VdfPath(String expression, String[] steps, String attributeStep) {
+        this.expression = expression;
+        this.steps = steps;
+        this.attributeStep = attributeStep;
+    }
+
+    /**
+     * Compiles an expression.
+     * @param expression The expression, see the class description
+     * @return A compiled path
+     * @throws IllegalArgumentException If the expression is not valid
+     */
+    public static VdfPath compile(String expression) throws IllegalArgumentException {
+        List<String> parts = new ArrayList<String>();
+        String attr = null;
+        String[] split = expression.split("/", -1);
+        for (int i = 0; i < split.length; i++) {
+            String part = split[i];
+            if (part.length() == 0) {
+                if (split.length == 1) {
+                    break; // An empty path selects the context node
+                }
+                throw new IllegalArgumentException("Empty step in path: " + expression);
+            }
+            if (part.startsWith(ATTRIBUTE_MARK)) {
+                if (i != split.length - 1) {
+                    throw new IllegalArgumentException("Attributes may only be selected by the last step: " + expression);
+                }
+                attr = fold(part.substring(ATTRIBUTE_MARK.length()));
+                if (attr.length() == 0) {
+                    throw new IllegalArgumentException("Missing attribute name in path: " + expression);
+                }
+            } else {
+                parts.add(DESCENDANTS.equals(part) || WILDCARD.equals(part) ? part : fold(part));
+            }
+        }
+        return new VdfPath(expression, parts.toArray(new String[parts.size()]), attr);
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Whether this path selects attributes rather than nodes
+     * @return True if the last step begins with '@'
+     */
+    public boolean selectsAttributes() {
+        return attributeStep != null;
+    }
+
+    /**
+     * Finds all nodes matched by the path. If the path selects attributes,
+     * these are the nodes whose attributes would be examined.
+     * @param context The node to start from
+     * @return A list of nodes, possibly empty
+     */
+    public List<VdfNode> selectNodes(VdfNode context) {
+        List<VdfNode> current = Collections.singletonList(context);
+        for (String step : steps) {
+            List<VdfNode> next = new ArrayList<VdfNode>();
+            for (VdfNode node : current) {
+                if (DESCENDANTS.equals(step)) {
+                    appendDescendants(node, next);
+                } else if (WILDCARD.equals(step)) {
+                    next.addAll(node.getChildren());
+                } else {
+                    next.addAll(node.getChildren(step));
+                }
+            }
+            current = next;
+            if (current.isEmpty()) {
+                break;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Finds the first node matched by the path.
+     * @param context The node to start from
+     * @return The first matching node, or null if there are none
+     */
+    public VdfNode selectNode(VdfNode context) {
+        List<VdfNode> found = selectNodes(context);
+        if (found.isEmpty()) {
+            return null;
+        }
+        return found.get(0);
+    }
+
+    /**
+     * Finds all attributes matched by the path.
+     * @param context The node to start from
+     * @return A list of attributes, possibly empty
+     * @throws IllegalStateException If this path does not select attributes
+     */
+    public List<VdfAttribute> selectAttributes(VdfNode context) throws IllegalStateException {
+        if (attributeStep == null) {
+            throw new IllegalStateException("Path does not select attributes: " + expression);
+        }
+        List<VdfAttribute> ret = new ArrayList<VdfAttribute>();
+        final boolean prefix = attributeStep.endsWith(WILDCARD);
+        final String name = prefix ? attributeStep.substring(0, attributeStep.length() - 1) : attributeStep;
+        for (VdfNode node : selectNodes(context)) {
+            if (!prefix) {
+                ret.addAll(node.getAttributes(name));
+                continue;
+            }
+            for (VdfAttribute att : node.getAttributes()) {
+                if (att.getName().toLowerCase(Locale.ENGLISH).startsWith(name)) {
+                    ret.add(att);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the values of all attributes matched by the path.
+     * @see #selectAttributes(com.technofovea.hl2parse.vdf.VdfNode)
+     * @param context The node to start from
+     * @return A list of values, possibly empty
+     */
+    public List<String> selectValues(VdfNode context) {
+        List<VdfAttribute> found = selectAttributes(context);
+        List<String> ret = new ArrayList<String>(found.size());
+        for (VdfAttribute att : found) {
+            ret.add(att.getValue());
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the value of the first attribute matched by the path.
+     * @see #selectAttributes(com.technofovea.hl2parse.vdf.VdfNode)
+     * @param context The node to start from
+     * @return The first value, or null if there are none
+     */
+    public String selectValue(VdfNode context) {
+        List<VdfAttribute> found = selectAttributes(context);
+        if (found.isEmpty()) {
+            return null;
+        }
+        return found.get(0).getValue();
+    }
+
+    private static void appendDescendants(VdfNode node, List<VdfNode> dest) {
+        dest.add(node);
+        for (VdfNode child : node.getChildren()) {
+            appendDescendants(child, dest);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
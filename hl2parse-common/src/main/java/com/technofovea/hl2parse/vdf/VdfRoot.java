@@ -12,6 +12,8 @@
  */
 package com.technofovea.hl2parse.vdf;
 
+import java.io.IOException;
+
 /**
  *
  * @author Darien Hager
@@ -20,12 +22,18 @@ public class VdfRoot extends VdfNode{
 
     @Override
     public String toString(int indentLevel, boolean pretty) {
-        StringBuilder sb = new StringBuilder();
+        return super.toString(indentLevel, pretty);
+    }
 
-        for(VdfNode vn : getChildren()){
-            sb.append(vn.toString(indentLevel,pretty));
+    /**
+     * The root has no braces of its own, so its blocks are written at the
+     * same level as the root.
+     */
+    @Override
+    protected void write(Appendable out, int indentLevel, Style style) throws IOException {
+        for (VdfNode vn : getChildren()) {
+            vn.write(out, indentLevel, style);
         }
-        return sb.toString();
     }
 
     @Override
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011 Darien Hager
+ *
+ * This code is part of the "HL2Parse" project, and is licensed under
+ * a Creative Commons Attribution-ShareAlike 3.0 Unported License. For
+ * either a summary of conditions or the full legal text, please visit:
+ *
+ * http://creativecommons.org/licenses/by-sa/3.0/
+ *
+ * Permissions beyond the scope of this license may be available
+ * at http://technofovea.com/ .
+ */
+package com.technofovea.hl2parse.vdf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a tree of {@link VdfNode} objects from parser events.
+ *
+ * @see VdfParser#parse(com.technofovea.hl2parse.vdf.VdfParser.Handler)
+ * @author Darien Hager
+ */
+public class VdfTreeBuilder implements VdfParser.Handler {
+
+    private final VdfRoot root = new VdfRoot();
+    private final List<VdfNode> stack = new ArrayList<VdfNode>();
+    private VdfNode current = root;
+
+    public void startBlock(String name) {
+        VdfNode child = new VdfNode();
+        // Anonymous blocks have a null name, so that hasName() is false
+        child.setName(name);
+        current.addChild(child);
+        stack.add(current);
+        current = child;
+    }
+
+    public void attribute(String key, String value) {
+        current.addAttribute(key, value);
+    }
+
+    public void endBlock() {
+        current = stack.remove(stack.size() - 1);
+    }
+
+    /**
+     * Get the tree which has been built so far
+     * @return The root, whose children are the top-level blocks
+     */
+    public VdfRoot getRoot() {
+        return root;
+    }
+}
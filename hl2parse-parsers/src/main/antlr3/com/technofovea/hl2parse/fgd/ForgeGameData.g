@@ -16,6 +16,7 @@ grammar ForgeGameData;
 @parser::header {
 package com.technofovea.hl2parse.fgd;
 import com.technofovea.hl2parse.ParserException;
+import com.technofovea.hl2parse.StringPool;
 import com.technofovea.hl2parse.fgd.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,20 @@ import com.technofovea.hl2parse.ParserException;
 	private static final Logger logger = LoggerFactory.getLogger(ForgeGameDataParser.class);
 	static final String CHOICE_TYPE = "choices";
 	static final String FLAG_TYPE = "flags";
+	// Class, property and I/O names repeat across every FGD, so share one copy of each
+	private StringPool pool = StringPool.getShared();
+
+	/**
+	 * Sets the pool used for class, property and input/output names and
+	 * types. Included files are parsed with the same pool.
+	 * @param pool The pool to use
+	 */
+	public void setStringPool(StringPool pool){
+		if(pool == null){
+			throw new IllegalArgumentException("Pool may not be null");
+		}
+		this.pool = pool;
+	}
 		
 	private static String joinTokenList(List listing, String separator){
 		StringBuilder sb = new StringBuilder();
@@ -126,6 +141,7 @@ includeDirective[FgdSpec root]
                         CharStream stream = $main::loader.getStream(path);
                         ForgeGameDataLexer lexer = new ForgeGameDataLexer(stream);
                         ForgeGameDataParser parser = new ForgeGameDataParser(new CommonTokenStream(lexer));
+                        parser.setStringPool(pool);
                         parser.main(root, $main::loader);
 		}catch (IOException e){
 			logger.error("Could not include from {}, because: {}",path,e.getMessage());
@@ -180,8 +196,8 @@ classDef[FgdSpec root]
 	:	ct=SECTION modifier[item]* EQUALS cn=name ( SEP classDesc[item])? classBody[item] 
 	{
 	logger.trace("Found class type {} named {}",$ct.text,$cn.text);
-	item.setType($ct.text);
-	root.addEntClass($cn.text,item);	
+	item.setType(pool.intern(FgdEntClass.cleanType($ct.text)));
+	root.addEntClass(pool.intern($cn.text),item);	
 	}
 	;
 	
@@ -197,7 +213,7 @@ modifier[FgdEntClass clazz]
 }
 	:	modname=Identifier (LPAREN modifierArg[values]? (',' modifierArg[values])* RPAREN)?
 	{
-		clazz.addModifier($modname.getText(),values);
+		clazz.addModifier(pool.intern($modname.getText().toLowerCase()),values);
 	}
 	;		
 
@@ -242,9 +258,9 @@ scope{ String propType; }
 }
 	:	 n=Identifier dtype=propTypeDecl accessMode=propertyReadOnly propSettings[thisProp]? propContent[thisProp]? 
 	{	
-	thisProp.setType(dtype);
+	thisProp.setType(pool.intern(dtype));
 	thisProp.setReadonly(accessMode);
-	parent.addProp($n.text,thisProp);
+	parent.addProp(pool.intern($n.text),thisProp);
 	logger.trace("Found property named {} with type {}",$n.text,dtype);
 	}
 	;
@@ -303,16 +319,16 @@ classInput[FgdEntClass parent]
 	:	itemType=Identifier iname=Identifier itype=ioTypeDecl (SEP descr=multilineString?)? {$itemType.text.equalsIgnoreCase("input")}?
 	{
 		//logger.debug("Input found named {} type {}",iname.getText(),itype);
-		FgdInput ip = new FgdInput(itype,descr);
-		parent.addInput(iname.getText(),ip);
+		FgdInput ip = new FgdInput(pool.intern(itype),descr);
+		parent.addInput(pool.intern(iname.getText()),ip);
 	}
 	;	
 classOutput[FgdEntClass parent]
 	:	itemType=Identifier oname=Identifier otype=ioTypeDecl (SEP descr=multilineString?)? {$itemType.text.equalsIgnoreCase("output")}?
 	{
 		//logger.debug("Output found named {} type {}",oname.getText(),otype);	
-		FgdOutput op = new FgdOutput(otype,descr);
-		parent.addOutput(oname.getText(),op);
+		FgdOutput op = new FgdOutput(pool.intern(otype),descr);
+		parent.addOutput(pool.intern(oname.getText()),op);
 		
 	}
 	;	
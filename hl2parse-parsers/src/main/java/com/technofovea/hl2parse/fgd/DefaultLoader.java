@@ -21,6 +21,8 @@ import org.antlr.runtime.ANTLRInputStream;
 import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -28,6 +30,8 @@ import org.antlr.runtime.RecognitionException;
  */
 public class DefaultLoader implements FgdLoader {
 
+    private static final Logger logger = LoggerFactory.getLogger(DefaultLoader.class);
+
     List<File> history = new ArrayList<File>();
     File workingDir = null;
 
@@ -40,6 +44,42 @@ public class DefaultLoader implements FgdLoader {
         return ldr;
     }
 
+    /**
+     * Fills a spec as with {@link #fillSpec(java.io.File, FgdSpec)}, but
+     * re-uses a snapshot of an earlier parse if neither the target nor any
+     * file it includes has changed since. If the snapshot cannot be used,
+     * the FGD is parsed and a new snapshot is written in its place.
+     *
+     * @see FgdSnapshot
+     * @param target The FGD file to load
+     * @param spec The spec to fill
+     * @param snapshot The snapshot file to read, and to create or replace if necessary
+     * @return A loader whose history lists the target and all included files
+     * @throws IOException If the FGD or snapshot could not be read
+     * @throws RecognitionException If the FGD could not be parsed
+     */
+    public static FgdLoader fillSpec(File target, FgdSpec spec, File snapshot) throws IOException, RecognitionException {
+        List<File> sources = FgdSnapshot.read(snapshot, target, spec);
+        if (sources != null) {
+            logger.debug("Loaded {} from snapshot {}", target, snapshot);
+            DefaultLoader ldr = new DefaultLoader();
+            ldr.history.addAll(sources);
+            ldr.workingDir = target.getAbsoluteFile().getParentFile();
+            return ldr;
+        }
+
+        // Parse into a fresh spec, so the snapshot holds only this FGD's contents
+        FgdSpec parsed = new FgdSpec();
+        DefaultLoader ldr = (DefaultLoader) fillSpec(target, parsed);
+        try {
+            FgdSnapshot.write(parsed, ldr.history, snapshot);
+        } catch (IOException ex) {
+            logger.warn("Could not write FGD snapshot " + snapshot, ex);
+        }
+        spec.addAll(parsed);
+        return ldr;
+    }
+
 
     public DefaultLoader() {
     }
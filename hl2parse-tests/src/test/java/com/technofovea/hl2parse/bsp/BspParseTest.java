@@ -14,16 +14,19 @@ package com.technofovea.hl2parse.bsp;
 
 import com.technofovea.hl2parse.bsp.SourceMapAnalyzer;
 import com.technofovea.hl2parse.ParseUtil;
+import com.technofovea.hl2parse.entdata.MapEntity;
 import java.io.File;
-import java.io.FileReader;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.nio.ByteBuffer;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -34,6 +37,11 @@ import org.junit.Test;
 public class BspParseTest {
 
     static final String BSP_LOC = "test_bsp_parse.bsp";
+    /**
+     * Version 21 copies of the same map data with LZMA-compressed lumps, one
+     * using the version-first lump directory of Left 4 Dead 2.
+     */
+    static final String[] LZMA_BSP_LOCS = new String[]{"test_bsp_lzma.bsp", "test_bsp_lzma_vfirst.bsp"};
     //static final String BSP_LOC = "../sdk_ctf_2fort.bsp";
 
     @Test
@@ -83,6 +91,193 @@ public class BspParseTest {
 
     }
 
+    @Test
+    public void testLazyParsing() throws Exception {
+        ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(BSP_LOC).toURI()));
+        SourceMapAnalyzer eager = new SourceMapAnalyzer(bb);
+
+        bb = ParseUtil.mapFile(new File(this.getClass().getResource(BSP_LOC).toURI()));
+        SourceMapAnalyzer lazy = new SourceMapAnalyzer(bb, true);
+
+        Assert.assertEquals(eager.getEntData(), lazy.getEntData());
+        Assert.assertEquals(eager.getStaticPropSkins(), lazy.getStaticPropSkins());
+        Assert.assertEquals(eager.getBrushTextures(), lazy.getBrushTextures());
+    }
+
+    @Test
+    public void testStaticPropTable() throws Exception {
+        ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(BSP_LOC).toURI()));
+        SourceMapAnalyzer sma = new SourceMapAnalyzer(bb, true);
+        StaticPropTable props = sma.getStaticProps();
+
+        Assert.assertEquals(4, props.size());
+        Assert.assertEquals(4, props.getNames().size());
+        StaticPropTable.Cursor prop = props.cursor();
+
+        prop.moveTo(1);
+        Assert.assertEquals("models/props_trainstation/column_light001b.mdl", prop.getName());
+        Assert.assertEquals(1, prop.getSkin());
+        Assert.assertEquals(-448f, prop.getOriginX(), 0.001f);
+        Assert.assertEquals(284f, prop.getOriginY(), 0.001f);
+        Assert.assertEquals(160f, prop.getOriginZ(), 0.001f);
+
+        prop.moveTo(3);
+        Assert.assertEquals("models/props_trainstation/payphone001a.mdl", prop.getName());
+        Assert.assertEquals(180f, prop.getYaw(), 0.001f);
+        Assert.assertTrue(prop.getFirstLeaf() + prop.getLeafCount() <= props.getLeaves().length);
+    }
+
+    @Test
+    public void testPositionalReads() throws Exception {
+        File mapFile = new File(this.getClass().getResource(BSP_LOC).toURI());
+        SourceMapAnalyzer mapped = new SourceMapAnalyzer(mapFile);
+        SourceMapAnalyzer unmapped = new SourceMapAnalyzer(mapFile, true, false);
+        try {
+            Assert.assertEquals(mapped.getEntData(), unmapped.getEntData());
+            Assert.assertEquals(mapped.getStaticPropSkins(), unmapped.getStaticPropSkins());
+            Assert.assertEquals(mapped.getPackedFiles().size(), unmapped.getPackedFiles().size());
+        } finally {
+            mapped.close();
+            unmapped.close();
+        }
+
+        // Already-decoded data is still available after closing
+        Assert.assertNotNull(mapped.getBrushTextures());
+    }
+
+    @Test
+    public void testCompressedLumps() throws Exception {
+        SourceMapAnalyzer plain = new SourceMapAnalyzer(new File(this.getClass().getResource(BSP_LOC).toURI()));
+        for (String loc : LZMA_BSP_LOCS) {
+            File mapFile = new File(this.getClass().getResource(loc).toURI());
+            SourceMapAnalyzer compressed = new SourceMapAnalyzer(mapFile, true, false);
+            try {
+                compressed.setCachePolicy(SourceMapAnalyzer.LUMP_ENTITIES, BinaryBspAnalyzer.CachePolicy.DISCARD);
+                Assert.assertEquals(plain.getEntData(), compressed.getEntData());
+                Assert.assertEquals(0, compressed.getCachedBytes());
+
+                Assert.assertEquals(plain.getBrushTextures(), compressed.getBrushTextures());
+                Assert.assertEquals(plain.getStaticPropSkins(), compressed.getStaticPropSkins());
+                Assert.assertTrue(compressed.getCachedBytes() > 0);
+
+                compressed.setCacheBudget(0);
+                Assert.assertEquals(0, compressed.getCachedBytes());
+            } finally {
+                compressed.close();
+            }
+        }
+    }
+
+    @Test
+    public void testProbe() throws Exception {
+        File mapFile = new File(this.getClass().getResource(BSP_LOC).toURI());
+        BspProbe probe = BspProbe.probe(mapFile);
+        Assert.assertEquals(20, probe.getVersion());
+        Assert.assertEquals(42, probe.getMapRevision());
+        Assert.assertEquals(SourceMapAnalyzer.NUM_LUMPS, probe.getLumps().size());
+        Assert.assertEquals(4, probe.getGameLumps().size());
+        Assert.assertEquals(6, probe.getGameLump(SourceMapAnalyzer.GAMELUMP_PROPS).getVersion());
+
+        BspProbe compressed = BspProbe.probe(new File(this.getClass().getResource(LZMA_BSP_LOCS[0]).toURI()));
+        Assert.assertEquals(21, compressed.getVersion());
+        Assert.assertEquals(probe.getLump(SourceMapAnalyzer.LUMP_ENTITIES).getLength(),
+                compressed.getLump(SourceMapAnalyzer.LUMP_ENTITIES).getUncompressedSize());
+        Assert.assertTrue(compressed.getGameLump(SourceMapAnalyzer.GAMELUMP_PROPS).isCompressed());
+    }
+
+    @Test
+    public void testEntityVisitor() throws Exception {
+        ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(BSP_LOC).toURI()));
+        SourceMapAnalyzer sma = new SourceMapAnalyzer(bb, true);
+        final List<String> classNames = new ArrayList<String>();
+        int count = sma.visitEntities(new EntityLumpReader.Visitor() {
+
+            public void startEntity() {
+            }
+
+            public void keyValue(String key, String value) {
+                if (key.equals("classname")) {
+                    classNames.add(value);
+                }
+            }
+
+            public void endEntity() {
+            }
+        });
+        Assert.assertEquals(19, count);
+        Assert.assertEquals(count, classNames.size());
+        Assert.assertEquals("worldspawn", classNames.get(0));
+    }
+
+    @Test
+    public void testEntities() throws Exception {
+        ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(BSP_LOC).toURI()));
+        SourceMapAnalyzer sma = new SourceMapAnalyzer(bb, true);
+        List<MapEntity> entities = sma.getEntities();
+        Assert.assertEquals(19, entities.size());
+
+        MapEntity world = entities.get(0);
+        Assert.assertEquals("worldspawn", world.getEntityClass());
+        Assert.assertEquals(1, world.getHammerId());
+        Assert.assertEquals(Collections.singletonList("sky_day01_01"), world.getValues("skyname"));
+
+        // Class-names are interned, so repeated classes share one instance
+        Assert.assertEquals("env_soundscape", entities.get(5).getEntityClass());
+        Assert.assertSame(entities.get(5).getEntityClass(), entities.get(6).getEntityClass());
+    }
+
+    @Test(expected = BspParseException.class)
+    public void testEntityVisitorMalformed() throws Exception {
+        ByteBuffer bb = ByteBuffer.wrap("{ \"classname\" }".getBytes("ASCII"));
+        new EntityLumpReader(bb).read(new EntityLumpReader.Visitor() {
+
+            public void startEntity() {
+            }
+
+            public void keyValue(String key, String value) {
+            }
+
+            public void endEntity() {
+            }
+        });
+    }
+
+    @Test
+    public void testBatchAnalysis() throws Exception {
+        File mapFile = new File(this.getClass().getResource(BSP_LOC).toURI());
+        List<File> maps = new ArrayList<File>();
+        for (int i = 0; i < 4; i++) {
+            maps.add(mapFile);
+        }
+        maps.add(new File(mapFile.getParentFile(), "test_bsp_parse.log"));
+
+        final List<BatchMapAnalyzer.Result> results = Collections.synchronizedList(new ArrayList<BatchMapAnalyzer.Result>());
+        final List<File> failures = Collections.synchronizedList(new ArrayList<File>());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BatchMapAnalyzer batch = new BatchMapAnalyzer(executor, 2);
+            batch.analyze(maps, new BatchMapAnalyzer.Callback() {
+
+                public void mapAnalyzed(BatchMapAnalyzer.Result result) {
+                    results.add(result);
+                }
+
+                public void mapFailed(File map, Exception cause) {
+                    failures.add(map);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(1, failures.size());
+        for (BatchMapAnalyzer.Result result : results) {
+            Assert.assertTrue(result.getPackedFiles().contains("materials/maps/test_bsp_parse/cubemapdefault.vtf"));
+            Assert.assertTrue(result.getStaticPropSkins().containsKey("models/props_trainstation/payphone001a.mdl"));
+        }
+    }
+
 /*
     @Test
     public void testEntdataParsing() throws Exception {
@@ -112,28 +307,26 @@ public class BspParseTest {
         SourceMapAnalyzer sma = new SourceMapAnalyzer(bb);
 
         Set<String> packedFilePaths = new HashSet<String>();
-        ZipFile zf = sma.getPackedFiles();
-        Enumeration<? extends ZipEntry> en = zf.entries();
-        while (en.hasMoreElements()) {
-            ZipEntry entry = en.nextElement();
+        PakFile pak = sma.getPackedFiles();
+        for (PakEntry entry : pak.getEntries()) {
             packedFilePaths.add(entry.getName());
-            //System.out.println(entry.getName());
         }
 
         Assert.assertTrue(packedFilePaths.contains("materials/maps/test_bsp_parse/cubemapdefault.vtf"));
 
-        if (false) {
-            File f = sma.getPackedFile("materials/maps/test_bsp_parse/tile/tilefloor001b_352_352_-896.vmt");
-            FileReader fr = new FileReader(f);
-            LineNumberReader lnr = new LineNumberReader(fr);
-            String line = "";
-            while(line != null){
-                line = lnr.readLine();
-                System.out.println(line);
-            }
-            sma.getPackedFile("materials/maps/test_bsp_parse/tile/tilefloor001b_352_352_-896.vmt");
-            sma.getPackedFile("materials/maps/test_bsp_parse/tile/tilefloor001b_352_352_-896.vmt");
+        PakEntry vmt = sma.getPackedFile("MATERIALS/maps/test_bsp_parse/tile/tilefloor001b_352_352_96.vmt");
+        Assert.assertNotNull(vmt);
+        ByteBuffer content = vmt.getData();
+        Assert.assertEquals(vmt.getSize(), content.remaining());
 
-        }
+        LineNumberReader lnr = new LineNumberReader(new InputStreamReader(vmt.getInputStream(), "ASCII"));
+        Assert.assertTrue(lnr.readLine().toLowerCase().contains("patch"));
+        lnr.close();
+
+        Assert.assertNull(sma.getPackedFile("materials/does/not/exist.vmt"));
+        Assert.assertTrue(sma.hasPackedFile("materials\\maps\\test_bsp_parse\\c0_0_96.vtf"));
+        Assert.assertFalse(sma.hasPackedFile("materials/maps/test_bsp_parse/c0_0_97.vtf"));
+        Assert.assertEquals(3, pak.getEntriesUnder("materials/maps/test_bsp_parse/tile/").size());
+        Assert.assertEquals(pak.size(), pak.getEntriesUnder("Materials/Maps/").size());
     }
 }
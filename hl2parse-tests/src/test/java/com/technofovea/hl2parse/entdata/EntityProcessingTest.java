@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.antlr.runtime.ANTLRInputStream;
 import org.antlr.runtime.CommonTokenStream;
@@ -102,4 +103,35 @@ public class EntityProcessingTest {
         }
         Assert.assertTrue(sprites.contains("materials/Sprites/light_glow03.vmt"));
     }
+
+    @Test
+    public void testAllDependencies() throws Exception {
+        File srcFile = new File(getClass().getResource("tf.fgd").toURI());
+        InputStream entStream = getClass().getResourceAsStream("ctf_2fort.ent");
+        ValveTokenLexer vfp = new ValveTokenLexer(new ANTLRInputStream(entStream));
+        SloppyParser sp = new SloppyParser(new CommonTokenStream(vfp));
+        List<MapEntity> ents = MapEntity.fromVdf(sp.main());
+
+        FgdSpec spec = new FgdSpec();
+        DefaultLoader.fillSpec(srcFile, spec);
+        DependencyFinder df = new DependencyFinder(spec, ents, DefaultPathFixer.getInstance());
+
+        // The single-pass results must agree with resolving each source separately
+        Map<ValueSource, List<String>> all = df.getAllDependencies();
+        for (ValueSource ep : df.getPropertiesByType(DependencyFinder.PROPTYPE_MODEL)) {
+            List<String> expected = df.getValues(ep);
+            if (expected.isEmpty()) {
+                Assert.assertFalse(all.containsKey(ep));
+            } else {
+                Assert.assertEquals(expected, all.get(ep));
+            }
+        }
+        Set<String> models = new HashSet<String>();
+        for (Map.Entry<ValueSource, List<String>> entry : all.entrySet()) {
+            if (DependencyFinder.PROPTYPE_MODEL.equalsIgnoreCase(entry.getKey().getDataType())) {
+                models.addAll(entry.getValue());
+            }
+        }
+        Assert.assertTrue(models.contains("models/props_gameplay/resupply_locker.mdl"));
+    }
 }
@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.junit.Assert;
@@ -66,6 +67,25 @@ public class CombinationTest {
 
     }
 
+    @Test
+    public void testInheritanceCache() throws Exception {
+        URL fileUrl = getClass().getResource("inherit_test.fgd");
+        File srcFile = new File(fileUrl.toURI());
+        FgdSpec spec = new FgdSpec();
+        DefaultLoader.fillSpec(srcFile, spec);
+
+        FgdEntClass bird = spec.getEntClass("CyberBird");
+        FgdEntClass combined = bird.getInherited(spec);
+        Assert.assertSame(combined, bird.getInherited(spec));
+        Assert.assertFalse(combined.getModifiers().containsKey(FgdEntClass.INHERITANCE_MODIFIER));
+
+        // Adding a class must invalidate earlier results
+        spec.addEntClass("Unrelated", new FgdEntClass());
+        FgdEntClass recombined = bird.getInherited(spec);
+        Assert.assertNotSame(combined, recombined);
+        Assert.assertEquals(combined.getProps(), recombined.getProps());
+    }
+
     @Test
     public void testImporting() throws Exception {
 
@@ -103,6 +123,49 @@ public class CombinationTest {
         
     }
 
+    @Test
+    public void testSnapshot() throws Exception {
+        URL fileUrl = getClass().getResource("importer.fgd");
+        File srcFile = new File(fileUrl.toURI());
+        File snapshot = File.createTempFile("fgd", ".snapshot");
+        snapshot.delete();
+        snapshot.deleteOnExit();
+
+        FgdSpec parsed = new FgdSpec();
+        FgdLoader first = DefaultLoader.fillSpec(srcFile, parsed, snapshot);
+        Assert.assertTrue(snapshot.isFile());
+
+        // A second load must come entirely from the snapshot
+        FgdSpec restored = new FgdSpec();
+        List<File> sources = FgdSnapshot.read(snapshot, srcFile, restored);
+        Assert.assertNotNull(sources);
+        Assert.assertEquals(((DefaultLoader) first).history, sources);
+        Assert.assertTrue(sources.size() > 1);
+
+        Assert.assertEquals(parsed.getEntClassNames(), restored.getEntClassNames());
+        Assert.assertEquals(parsed.getExcludedMaterials(), restored.getExcludedMaterials());
+        Assert.assertEquals(parsed.getVisGroupNames(), restored.getVisGroupNames());
+        for (String name : parsed.getEntClassNames()) {
+            FgdEntClass expected = parsed.getEntClass(name);
+            FgdEntClass actual = restored.getEntClass(name);
+            Assert.assertEquals(expected.getType(), actual.getType());
+            Assert.assertEquals(expected.getDescription(), actual.getDescription());
+            Assert.assertEquals(expected.getModifiers(), actual.getModifiers());
+            Assert.assertEquals(expected.getInputs(), actual.getInputs());
+            Assert.assertEquals(expected.getOutputs(), actual.getOutputs());
+            Assert.assertEquals(expected.getProps().keySet(), actual.getProps().keySet());
+            for (String prop : expected.getProps().keySet()) {
+                Assert.assertEquals(expected.getProps().get(prop).toText(prop), actual.getProps().get(prop).toText(prop));
+            }
+        }
+
+        // A snapshot of some other file must not be used
+        File other = new File(getClass().getResource("inherit_test.fgd").toURI());
+        FgdSpec unused = new FgdSpec();
+        Assert.assertNull(FgdSnapshot.read(snapshot, other, unused));
+        Assert.assertTrue(unused.getEntClassNames().isEmpty());
+    }
+
     @Test(timeout = 5000)
     public void testCyclicImports() throws Exception {
         // Just make sure they don't fail horribly. They're certainly invalid.
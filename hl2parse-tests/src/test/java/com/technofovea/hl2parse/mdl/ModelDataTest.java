@@ -19,8 +19,12 @@ import com.technofovea.hl2parse.vdf.ValveTokenLexer;
 import com.technofovea.hl2parse.vdf.VdfRoot;
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +90,214 @@ public class ModelDataTest {
 
     }
     
+    @Test
+    public void testLazyModel() throws Exception {
+        File mdl = new File(this.getClass().getResource(BUOY_MODEL).toURI());
+        ModelData eager = new ModelData(ParseUtil.mapFile(mdl));
+        ModelData lazy = new ModelData(ParseUtil.mapFile(mdl), true);
+
+        Assert.assertEquals(eager.getModelName(), lazy.getModelName());
+        Assert.assertEquals(eager.getTexturesForSkin(2), lazy.getTexturesForSkin(2));
+        Assert.assertEquals(eager.getTextureNames(), lazy.getTextureNames());
+        Assert.assertEquals(eager.getTextureSearchPaths(), lazy.getTextureSearchPaths());
+        Assert.assertEquals(eager.getIncludedModels(), lazy.getIncludedModels());
+    }
+
+    @Test
+    public void testSkinTable() throws Exception {
+        ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(BUOY_MODEL).toURI()));
+        ModelData md = new ModelData(bb, true);
+
+        Assert.assertEquals(3, md.getSkinReferenceCount());
+        ShortBuffer table = md.getSkinTable();
+        Assert.assertTrue(table.isReadOnly());
+        short[] expected = new short[]{0, 1, 2, 1, 1, 2, 2, 1, 2};
+        Assert.assertEquals(expected.length, table.remaining());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], table.get(i));
+        }
+        Assert.assertEquals(2, md.getSkinReference(2, 0));
+
+        BitSet skins = new BitSet();
+        skins.set(2);
+        BitSet textures = md.getTextureIndexesForSkins(skins);
+        Assert.assertEquals(2, textures.cardinality());
+        Assert.assertTrue(textures.get(1) && textures.get(2));
+
+        // Nonexistent skins are ignored
+        Assert.assertEquals(Arrays.asList("buoy_diffuse2.vmt", "buoy_diffuse3.vmt"),
+                md.getTexturesForSkins(Arrays.asList(1, 2, 7)));
+    }
+
+    @Test
+    public void testRigTables() throws Exception {
+        ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(BUOY_MODEL).toURI()));
+        ModelData md = new ModelData(bb, true);
+
+        BoneTable bones = md.getBones();
+        Assert.assertEquals(Arrays.asList("static_prop"), bones.getNames());
+        Assert.assertEquals(-1, bones.getParents()[0]);
+        Assert.assertEquals("metal", bones.getSurfaceProp(0));
+        Assert.assertEquals(1.0f, bones.getQuaternions()[3], 0.0001f);
+
+        SequenceTable seqs = md.getSequences();
+        Assert.assertEquals(1, seqs.size());
+        Assert.assertEquals("idle", seqs.getName(0));
+        Assert.assertEquals(0, seqs.getEventCount(0));
+        Assert.assertEquals(0.2f, seqs.getFadeInTime(0), 0.0001f);
+
+        AnimationTable anims = md.getAnimations();
+        int[] seqAnims = seqs.getAnimations(0);
+        Assert.assertEquals(1, seqAnims.length);
+        Assert.assertEquals("@idle", anims.getName(seqAnims[0]));
+        Assert.assertEquals(15.0f, anims.getFps(0), 0.0001f);
+        Assert.assertEquals(0, anims.getAnimBlock(0));
+        Assert.assertEquals("", anims.getBlockFileName());
+
+        HitboxTable hitboxes = md.getHitboxSets();
+        Assert.assertEquals(0, hitboxes.indexOf("DEFAULT"));
+        Assert.assertEquals(1, hitboxes.getHitboxCount(0));
+        Assert.assertEquals(0, hitboxes.getHitboxBone(0, 0));
+        float[] bounds = hitboxes.getHitboxBounds(0, 0, new float[6]);
+        Assert.assertTrue(bounds[0] < bounds[3]);
+
+        Assert.assertEquals(0, md.getAttachments().size());
+        Assert.assertEquals(0, md.getFlexDescriptors().size());
+        Assert.assertEquals(0, md.getPoseParameters().size());
+    }
+
+    @Test
+    public void testHeaderOnly() throws Exception {
+        File mdl = new File(this.getClass().getResource(BUOY_MODEL).toURI());
+        ModelData full = new ModelData(ParseUtil.mapFile(mdl));
+        ModelData header = ModelData.readHeader(mdl);
+
+        Assert.assertEquals("props_swamp/buoy_ref.mdl", header.getModelName());
+        Assert.assertEquals(3, header.getSkinCount());
+        Assert.assertEquals(full.getVersion(), header.getVersion());
+        Assert.assertEquals(full.getChecksum(), header.getChecksum());
+        Assert.assertEquals(3, header.getSectionCount(ModelSection.TEXTURE));
+        Assert.assertEquals(3, header.getSectionCount(ModelSection.SKIN));
+        Assert.assertEquals(1, header.getSectionCount(ModelSection.CDTEXTURE));
+        Assert.assertEquals(1576, header.getSectionOffset(ModelSection.TEXTURE));
+        Assert.assertEquals(0, header.getSectionCount(ModelSection.LOCALNODE));
+        try {
+            header.getTextureNames();
+            Assert.fail("Section data should not be available");
+        } catch (ModelParseException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Builds a VVD file holding a single triangle, since none are shipped
+     * with the test resources.
+     */
+    private static ByteBuffer buildVertexFile(int checksum) {
+        ByteBuffer bb = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(VvdData.ID).putInt(4).putInt(checksum).putInt(1);
+        bb.putInt(3);
+        for (int i = 1; i < VvdData.MAX_LODS; i++) {
+            bb.putInt(0);
+        }
+        bb.putInt(0).putInt(0).putInt(64).putInt(208);
+        float[][] positions = {{0f, 0f, 0f}, {10f, -2f, 0f}, {0f, 5f, 8f}};
+        for (float[] pos : positions) {
+            bb.putFloat(1f).putFloat(0f).putFloat(0f).putInt(0);
+            bb.putFloat(pos[0]).putFloat(pos[1]).putFloat(pos[2]);
+            bb.putFloat(0f).putFloat(0f).putFloat(1f);
+            bb.putFloat(pos[0] / 10f).putFloat(pos[1] / 10f);
+        }
+        for (int i = 0; i < positions.length; i++) {
+            bb.putFloat(1f).putFloat(0f).putFloat(0f).putFloat(1f);
+        }
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * Builds a VTX file with one mesh, drawing the triangle from
+     * {@link #buildVertexFile(int)} as a triangle list.
+     */
+    private static ByteBuffer buildStripFile(int checksum) {
+        ByteBuffer bb = ByteBuffer.allocate(158).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(VtxData.VERSION).putInt(24).putShort((short) 53).putShort((short) 9).putInt(3);
+        bb.putInt(checksum).putInt(1).putInt(0).putInt(1).putInt(36);
+        bb.putInt(1).putInt(8); // Body part
+        bb.putInt(1).putInt(8); // Model
+        bb.putInt(1).putInt(12).putFloat(0f); // LOD
+        bb.putInt(1).putInt(9).put((byte) 0); // Mesh
+        bb.putInt(3).putInt(25).putInt(3).putInt(52).putInt(1).putInt(58).put((byte) 0); // Strip group
+        for (int i = 0; i < 3; i++) {
+            bb.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 1).putShort((short) (2 - i));
+            bb.put((byte) 0).put((byte) 0).put((byte) 0);
+        }
+        bb.putShort((short) 0).putShort((short) 1).putShort((short) 2);
+        bb.putInt(3).putInt(0).putInt(3).putInt(0).putShort((short) 1);
+        bb.put((byte) VtxData.STRIP_IS_TRILIST).putInt(0).putInt(0);
+        bb.flip();
+        return bb;
+    }
+
+    @Test
+    public void testVertexData() throws Exception {
+        ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(BUOY_MODEL).toURI()));
+        ModelData md = new ModelData(bb, true);
+
+        BodyPartTable parts = md.getBodyParts();
+        Assert.assertEquals(1, parts.size());
+        Assert.assertEquals("mybody", parts.getName(0));
+        Assert.assertEquals(1, parts.getModelCount(0));
+        Assert.assertEquals("buoy.smd", parts.getModelName(0, 0));
+        Assert.assertEquals(1, parts.getMeshCount(0, 0));
+        Assert.assertEquals(1409, parts.getMeshVertexCount(0, 0, 0, 0));
+        Assert.assertEquals(0, parts.getMeshVertexStart(0, 0, 0));
+        Assert.assertEquals(0, parts.getMeshMaterial(0, 0, 0));
+
+        VvdData vvd = new VvdData(buildVertexFile(md.getChecksum()), md);
+        Assert.assertEquals(1, vvd.getLodCount());
+        Assert.assertEquals(3, vvd.getVertexCount(0));
+        FloatBuffer verts = vvd.getVertexData();
+        Assert.assertTrue(verts.isReadOnly());
+        Assert.assertEquals(3 * VvdData.VERTEX_FLOATS, verts.remaining());
+        Assert.assertEquals(-2f, verts.get(VvdData.VERTEX_FLOATS + VvdData.POSITION + 1), 0.0001f);
+        Assert.assertEquals(1f, verts.get(VvdData.NORMAL + 2), 0.0001f);
+        Assert.assertEquals(12, vvd.getTangentData().remaining());
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, vvd.getVertexIndexes(0));
+        float[] bounds = vvd.getBounds(0, new float[6]);
+        float[] expectedBounds = {0f, -2f, 0f, 10f, 5f, 8f};
+        for (int i = 0; i < expectedBounds.length; i++) {
+            Assert.assertEquals(expectedBounds[i], bounds[i], 0.0001f);
+        }
+
+        VtxData vtx = new VtxData(buildStripFile(md.getChecksum()), md);
+        Assert.assertEquals(1, vtx.getBodyPartCount());
+        Assert.assertEquals(1, vtx.getModelCount(0));
+        Assert.assertEquals(1, vtx.getMeshCount(0, 0, 0));
+        VtxData.Cursor mesh = vtx.cursor().moveTo(0, 0, 0, 0);
+        Assert.assertEquals(1, mesh.getStripGroupCount());
+        Assert.assertEquals(3, mesh.getVertexCount(0));
+        Assert.assertArrayEquals(new int[]{2, 1, 0}, mesh.getVertexIds(0));
+        ShortBuffer indices = mesh.getIndices(0);
+        Assert.assertEquals(3, indices.remaining());
+        Assert.assertEquals(2, indices.get(2));
+        Assert.assertEquals(1, mesh.getTriangleCount());
+        Assert.assertEquals(1, vtx.getTriangleCount(0));
+
+        try {
+            new VvdData(buildVertexFile(md.getChecksum() + 1), md);
+            Assert.fail("Vertex data for another model should be rejected");
+        } catch (ModelParseException ex) {
+            // Expected
+        }
+        try {
+            new VtxData(buildStripFile(md.getChecksum() + 1), md);
+            Assert.fail("Strip data for another model should be rejected");
+        } catch (ModelParseException ex) {
+            // Expected
+        }
+    }
+
     @Test
     public void testBuoyPhy() throws Exception {
         ByteBuffer bb = ParseUtil.mapFile(new File(this.getClass().getResource(PHY_MODEL).toURI()));
@@ -12,13 +12,18 @@
  */
 package com.technofovea.hl2parse.vdf;
 
+import com.technofovea.hl2parse.StringPool;
+import com.technofovea.hl2parse.entdata.MapEntity;
 import com.technofovea.hl2parse.vdf.GameConfigReader.Game;
 import com.technofovea.hl2parse.xml.MaterialRefList;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -65,6 +70,56 @@ public class ParseTest {
         return root;
     }
 
+    @Test
+    public void testFastParserConformance() throws Exception {
+        final String[] files = new String[]{
+            STEAM_LOGON_FILE,
+            GAMEINFO,
+            MATERIAL_WATER,
+            MATERIAL_BLEND,
+            PARTICLE_MANIFEST,
+            SDK_GAME_CONFIG,
+            SOUNDSCAPE,
+            TOKEN_FILE
+        };
+        for (String name : files) {
+            File f = new File(getClass().getResource(name).toURI());
+            VdfRoot expected = doSloppyParse(new FileInputStream(f));
+            VdfRoot mapped = VdfParser.parse(f);
+            VdfRoot streamed = VdfParser.parse(getClass().getResourceAsStream(name));
+            Assert.assertEquals(name, expected.toString(), mapped.toString());
+            Assert.assertEquals(name, expected.toString(), streamed.toString());
+        }
+
+        File gameInfoFile = new File(getClass().getResource(GAMEINFO).toURI());
+        GameInfoReader gi = new GameInfoReader(VdfParser.parse(gameInfoFile), gameInfoFile);
+        Assert.assertEquals("Team Fortress 2", gi.getGameName());
+    }
+
+    @Test
+    public void testFastParserDialect() throws Exception {
+        VdfRoot root = VdfParser.parse("bare{key value // comment\n\"quoted\"\"adjacent\" {anon \"esc\\\"aped\"}}\u0000trailing");
+        Assert.assertEquals(1, root.getChildren().size());
+        VdfNode bare = root.getChildren().get(0);
+        Assert.assertEquals("bare", bare.getName());
+        Assert.assertEquals(2, bare.getAttributes().size());
+        Assert.assertEquals("value", bare.getAttributes().get(0).getValue());
+        Assert.assertEquals("adjacent", bare.getAttributes().get(1).getValue());
+        VdfNode anon = bare.getChildren().get(0);
+        Assert.assertFalse(anon.hasName());
+        Assert.assertEquals("esc\\\"aped", anon.getAttributes().get(0).getValue());
+
+        final String[] malformed = new String[]{"key value", "block{key}", "block{", "}", "block{key:value}", "block{\"key"};
+        for (String text : malformed) {
+            try {
+                VdfParser.parse(text);
+                Assert.fail("Parsed malformed text: " + text);
+            } catch (VdfParseException ex) {
+                // Expected
+            }
+        }
+    }
+
     @Test
     public void testTf2GameInfo() throws Exception {
 
@@ -88,6 +143,51 @@ public class ParseTest {
 
     }
 
+    @Test
+    public void testIndexedLookup() throws Exception {
+        VdfRoot root = VdfParser.parse(getClass().getResourceAsStream(GAMEINFO));
+
+        VdfNode searchPaths = root.getPath("gameinfo/FILESYSTEM/SearchPaths");
+        Assert.assertNotNull(searchPaths);
+        Assert.assertSame(searchPaths, root.getChild("GameInfo").getChild("FileSystem").getChild("searchpaths"));
+        Assert.assertNull(root.getPath("GameInfo/Missing/SearchPaths"));
+
+        List<String> paths = new ArrayList<String>();
+        for (VdfAttribute att : searchPaths.getAttributes("game")) {
+            paths.add(att.getValue());
+        }
+        Assert.assertEquals(3, paths.size());
+        Assert.assertEquals("tf", paths.get(1));
+        Assert.assertEquals("|gameinfo_path|.", searchPaths.getAttribute("GAME").getValue());
+        Assert.assertTrue(searchPaths.getAttributes("nothing").isEmpty());
+
+        // The index must notice additions
+        searchPaths.addAttribute("Game", "extra");
+        Assert.assertEquals(4, searchPaths.getAttributes("Game").size());
+        Assert.assertEquals("440", root.getPath("GameInfo/FileSystem").getAttribute("steamappid").getValue());
+    }
+
+    @Test
+    public void testCompiledPaths() throws Exception {
+        VdfRoot root = VdfParser.parse("Top { Key 1 Other 2 Sub { key 3 } sub { KEY 4 deep { key 5 } } }");
+
+        Assert.assertEquals(2, VdfPath.compile("top/SUB").selectNodes(root).size());
+        Assert.assertEquals("1", VdfPath.compile("top/@key").selectValue(root));
+        Assert.assertEquals(Arrays.asList("3", "4"), VdfPath.compile("Top/*/@key").selectValues(root));
+        Assert.assertEquals(Arrays.asList("1", "3", "4", "5"), VdfPath.compile("**/@key").selectValues(root));
+        Assert.assertEquals(2, VdfPath.compile("Top/@*").selectAttributes(root).size());
+        Assert.assertEquals(1, VdfPath.compile("Top/@oth*").selectAttributes(root).size());
+        Assert.assertNull(VdfPath.compile("Top/Missing/@key").selectValue(root));
+        Assert.assertNull(VdfPath.compile("Top/Missing").selectNode(root));
+
+        try {
+            VdfPath.compile("Top/@key/Sub");
+            Assert.fail("Attribute step was allowed before the end of the path");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
     @Test
     public void testOrangeboxSdkConfig() throws Exception {
         final String TITLE_EP2 = "Half-Life 2: Episode Two";
@@ -266,6 +366,159 @@ public class ParseTest {
         assertSameItems(expectedScapes, ss.getSoundscapeNames());
     }
 
+    @Test
+    public void testSoundscapeEvents() throws Exception {
+        File soundscapeFile = new File(getClass().getResource(SOUNDSCAPE).toURI());
+        SoundScapeReader ss = new SoundScapeReader(VdfParser.parse(soundscapeFile));
+        List<String> streamed = SoundScapeReader.readSoundFiles(soundscapeFile);
+        Assert.assertEquals(ss.getSoundFiles().size(), streamed.size());
+        Assert.assertEquals(new HashSet<String>(ss.getSoundFiles()), new HashSet<String>(streamed));
+
+        final StringBuilder events = new StringBuilder();
+        VdfParser parser = new VdfParser("outer { k v { a b } inner { } }".getBytes("UTF-8"));
+        parser.parse(new VdfParser.Handler() {
+
+            public void startBlock(String name) {
+                events.append("start:").append(name).append(" ");
+            }
+
+            public void attribute(String key, String value) {
+                events.append(key).append("=").append(value).append(" ");
+            }
+
+            public void endBlock() {
+                events.append("end ");
+            }
+        });
+        Assert.assertEquals("start:outer k=v start:null a=b end start:inner end end ", events.toString());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        final String[] files = new String[]{GAMEINFO, SDK_GAME_CONFIG, SOUNDSCAPE, "cp_dustbowl.ent"};
+        for (String name : files) {
+            VdfRoot text = VdfParser.parse(getClass().getResourceAsStream(name));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryVdfWriter.write(text, bytes);
+            VdfRoot binary = new BinaryVdfReader(bytes.toByteArray()).parse();
+            Assert.assertEquals(name, text.toString(), binary.toString());
+        }
+    }
+
+    @Test
+    public void testBinaryTypes() throws Exception {
+        byte[] data = new byte[]{
+            BinaryVdfReader.TYPE_BLOCK, 'a', 0,
+            BinaryVdfReader.TYPE_INT, 'i', 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+            BinaryVdfReader.TYPE_FLOAT, 'f', 0, 0, 0, (byte) 0xC0, 0x3F,
+            BinaryVdfReader.TYPE_UINT64, 'u', 0, -1, -1, -1, -1, -1, -1, -1, -1,
+            BinaryVdfReader.TYPE_BLOCK, 0,
+            BinaryVdfReader.TYPE_STRING, 's', 0, 'x', 0,
+            BinaryVdfReader.TYPE_END,
+            BinaryVdfReader.TYPE_END,
+            BinaryVdfReader.TYPE_END
+        };
+        VdfRoot root = new BinaryVdfReader(data).parse();
+        VdfNode a = root.getChildren().get(0);
+        Assert.assertEquals("a", a.getName());
+        Assert.assertEquals("-1", a.getAttributes().get(0).getValue());
+        Assert.assertEquals("1.5", a.getAttributes().get(1).getValue());
+        Assert.assertEquals("18446744073709551615", a.getAttributes().get(2).getValue());
+        Assert.assertFalse(a.getChildren().get(0).hasName());
+        Assert.assertEquals("x", a.getChildren().get(0).getAttributes().get(0).getValue());
+
+        try {
+            new BinaryVdfReader(new byte[]{BinaryVdfReader.TYPE_BLOCK, 'a', 0}).parse();
+            Assert.fail("Unterminated block was accepted");
+        } catch (VdfParseException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStreamingWriter() throws Exception {
+        VdfRoot root = VdfParser.parse(getClass().getResourceAsStream(SDK_GAME_CONFIG));
+        StringWriter plain = new StringWriter();
+        root.writeTo(plain, VdfNode.Style.PLAIN);
+        Assert.assertEquals(root.toString(), plain.toString());
+        StringWriter pretty = new StringWriter();
+        root.writeTo(pretty, VdfNode.Style.PRETTY);
+        Assert.assertEquals(root.toPrettyString(), pretty.toString());
+        Assert.assertEquals(root.toString(), VdfParser.parse(pretty.toString()).toString());
+
+        // Quoted text has no escapes, so it must read back exactly as written
+        String[] representable = {"say \\\"hi\\\"", "C:\\Steam\\steamapps", "|gameinfo_path|."};
+        for (String value : representable) {
+            VdfNode node = new VdfNode();
+            node.setName("values");
+            node.addAttribute("key", value);
+            StringBuilder sb = new StringBuilder();
+            node.writeTo(sb, VdfNode.Style.PLAIN);
+            VdfAttribute reparsed = VdfParser.parse(sb.toString()).getChild("values").getAttribute("key");
+            Assert.assertEquals(value, reparsed.getValue());
+        }
+        String[] unrepresentable = {"say \"hi\"", "C:\\Steam\\", null};
+        for (String value : unrepresentable) {
+            // Put the bad value deep in the tree, after some valid text
+            VdfNode node = new VdfNode();
+            node.setName("values");
+            node.addAttribute("ok", "fine");
+            VdfNode child = new VdfNode();
+            child.setName("child");
+            child.addAttribute("key", value);
+            node.addChild(child);
+            StringBuilder sb = new StringBuilder();
+            try {
+                node.writeTo(sb, VdfNode.Style.PLAIN);
+                Assert.fail("Should not write " + value);
+            } catch (IllegalArgumentException ex) {
+                // Expected
+            }
+            Assert.assertEquals("Nothing should be written", 0, sb.length());
+        }
+    }
+
+    @Test
+    public void testStringPool() throws Exception {
+        StringPool pool = new StringPool();
+        VdfRoot[] roots = new VdfRoot[2];
+        for (int i = 0; i < roots.length; i++) {
+            InputStream is = getClass().getResourceAsStream(SDK_GAME_CONFIG);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                bytes.write(buf, 0, read);
+            }
+            is.close();
+            VdfParser parser = new VdfParser(bytes.toByteArray());
+            parser.setStringPool(pool);
+            roots[i] = parser.parse();
+        }
+        Assert.assertTrue(pool.size() > 0);
+
+        // Names and keys are shared between separate parses, values are not
+        VdfNode first = roots[0].getChildren().get(0);
+        VdfNode second = roots[1].getChildren().get(0);
+        Assert.assertSame(first.getName(), second.getName());
+        VdfAttribute firstAtt = first.getAttributes().get(0);
+        VdfAttribute secondAtt = second.getAttributes().get(0);
+        Assert.assertSame(firstAtt.getName(), secondAtt.getName());
+        Assert.assertEquals(firstAtt.getValue(), secondAtt.getValue());
+        Assert.assertNotSame(firstAtt.getValue(), secondAtt.getValue());
+
+        // Entities use the shared pool
+        List<MapEntity> entities = new ArrayList<MapEntity>();
+        for (int i = 0; i < 2; i++) {
+            VdfNode ent = new VdfNode();
+            ent.addAttribute(new String("classname"), new String("prop_static"));
+            ent.addAttribute(new String("model"), "models/foo.mdl");
+            entities.add(new MapEntity(ent));
+        }
+        Assert.assertSame(entities.get(0).getEntityClass(), entities.get(1).getEntityClass());
+        Assert.assertSame(StringPool.getShared().intern("model"), entities.get(0).getKeys().iterator().next());
+    }
+
     @Test
     public void testLogonRetrieval() throws Exception {
         InputStream is = this.getClass().getResourceAsStream(STEAM_LOGON_FILE);